@@ -13,6 +13,15 @@ class ArgumentParser {
     private static final String UDP_PORT_S = "-u";
     private static final String FILE_NAME_S = "-f";
     private static final String VERBOSE_S = "-v";
+    private static final String WINDOW_SIZE_S = "-w";
+    private static final String CONGESTION_CONTROL_S = "-c";
+    private static final String ADVERTISE_S = "-a";
+    private static final String WORKER_THREADS_S = "-t";
+    private static final String FSYNC_S = "-y";
+    private static final String LINK_MTU_S = "-l";
+    private static final String FEC_S = "-e";
+    private static final String COMPRESS_S = "-z";
+    private static final String ROUTING_S = "-k";
     private static final String HELP_S = "-h";
 
     private static final String ROVER_L = "--rover-id";
@@ -23,6 +32,15 @@ class ArgumentParser {
     private static final String UDP_PORT_L = "--udp-port";
     private static final String FILE_NAME_L = "--file-name";
     private static final String VERBOSE_L = "--verbose";
+    private static final String WINDOW_SIZE_L = "--window-size";
+    private static final String CONGESTION_CONTROL_L = "--congestion-control";
+    private static final String ADVERTISE_L = "--advertise";
+    private static final String WORKER_THREADS_L = "--worker-threads";
+    private static final String FSYNC_L = "--fsync";
+    private static final String LINK_MTU_L = "--link-mtu";
+    private static final String FEC_L = "--fec";
+    private static final String COMPRESS_L = "--compress";
+    private static final String ROUTING_L = "--routing";
     private static final String HELP_L = "--help";
 
     /**
@@ -73,6 +91,43 @@ class ArgumentParser {
                     rover.fileName = args[i + 1];
                     missingFileName = false;
                 }
+                if (argument.equals(WINDOW_SIZE_S) || argument.equals(WINDOW_SIZE_L)) {
+                    rover.windowSize = Integer.parseInt(args[i + 1]);
+                }
+                if (argument.equals(CONGESTION_CONTROL_S) || argument.equals(CONGESTION_CONTROL_L)) {
+                    rover.congestionControl = args[i + 1];
+                }
+                if (argument.equals(WORKER_THREADS_S) || argument.equals(WORKER_THREADS_L)) {
+                    rover.workerThreads = Integer.parseInt(args[i + 1]);
+                }
+                if (argument.equals(FSYNC_S) || argument.equals(FSYNC_L)) {
+                    rover.fsync = args[i + 1];
+                }
+                if (argument.equals(LINK_MTU_S) || argument.equals(LINK_MTU_L)) {
+                    rover.linkMtu = Integer.parseInt(args[i + 1]);
+                }
+                if (argument.equals(FEC_S) || argument.equals(FEC_L)) {
+                    rover.fecGroupSize = Integer.parseInt(args[i + 1]);
+                }
+                if (argument.equals(COMPRESS_S) || argument.equals(COMPRESS_L)) {
+                    rover.compress = true;
+                }
+                if (argument.equals(ROUTING_S) || argument.equals(ROUTING_L)) {
+                    rover.routing = args[i + 1];
+                }
+                if (argument.equals(ADVERTISE_S) || argument.equals(ADVERTISE_L)) {
+                    String prefix = args[i + 1];
+                    String[] parts = prefix.split("/");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("Bad prefix " + prefix);
+                    }
+                    IPAddresses.toInt(parts[0]);
+                    int length = Integer.parseInt(parts[1]);
+                    if (length < 0 || length > 32) {
+                        throw new IllegalArgumentException("Bad prefix " + prefix);
+                    }
+                    rover.advertisedPrefixes.add(prefix);
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -111,6 +166,41 @@ class ArgumentParser {
                     "provided at all. Exiting ...");
             displayHelp();
         }
+        if (rover.windowSize < 1) {
+            System.err.println("Error: Window size must be at least 1. Exiting...");
+            displayHelp();
+        }
+        if (rover.workerThreads < 1) {
+            System.err.println("Error: There must be at least 1 worker thread. Exiting...");
+            displayHelp();
+        }
+        if (!rover.congestionControl.equals("reno") && !rover.congestionControl.equals("delay")) {
+            System.err.println("Error: Unknown congestion control " +
+                    rover.congestionControl + ". Exiting...");
+            displayHelp();
+        }
+        if (!rover.fsync.equals("none") && !rover.fsync.equals("close")
+                && !rover.fsync.equals("always")) {
+            System.err.println("Error: Unknown fsync policy " + rover.fsync +
+                    ". Exiting...");
+            displayHelp();
+        }
+        if (rover.linkMtu < SenderSession.BASE_MTU) {
+            //Transfers start at BASE_MTU and only probe upwards.
+            System.err.println("Error: The link MTU must be at least " +
+                    SenderSession.BASE_MTU + ". Exiting...");
+            displayHelp();
+        }
+        if (rover.fecGroupSize < 0 || rover.fecGroupSize > 64) {
+            System.err.println("Error: The FEC group size must be between 0 and 64. " +
+                    "Exiting...");
+            displayHelp();
+        }
+        if (!rover.routing.equals("rip") && !rover.routing.equals("link-state")) {
+            System.err.println("Error: Unknown routing protocol " + rover.routing +
+                    ". Exiting...");
+            displayHelp();
+        }
         if (missingArgument) {
             System.out.println("See " + HELP_L + " for options");
         }
@@ -172,14 +262,75 @@ class ArgumentParser {
                 " " +
                 "to be" +
                 " transmitted. If provided, it MUST exist along with the " +
-                "-d flag.");
+                "-d flag. Several files may be given, separated by commas (for " +
+                "instance a.txt,b.txt); each of them is sent in a session of its own, " +
+                "all at the same time.");
         System.out.println();
 
         System.out.println("[" + DESTINATION_IP_S + " | " + DESTINATION_IP_L + "]: the " +
                 "IP" +
                 " " +
-                "address of the destination Rover. Must be of the form \"10.0" +
-                ".<rover_id>.0\"");
+                "address of the destination Rover. Usually of the form \"10.0" +
+                ".<rover_id>.0\", but any address inside a prefix advertised by a " +
+                "Rover may be used.");
+        System.out.println();
+
+        System.out.println("[" + WINDOW_SIZE_S + " | " + WINDOW_SIZE_L + "]: the " +
+                "number of Ripcom packets that may be in flight at once while sending a " +
+                "file. Defaulted to 16 if not specified.");
+        System.out.println();
+
+        System.out.println("[" + CONGESTION_CONTROL_S + " | " + CONGESTION_CONTROL_L +
+                "]: the congestion control used while sending a file. Either \"reno\" " +
+                "(loss based AIMD, the default) or \"delay\" (delay based, like TCP " +
+                "Vegas).");
+        System.out.println();
+
+        System.out.println("[" + ADVERTISE_S + " | " + ADVERTISE_L + "]: a prefix of " +
+                "the form \"a.b.c.d/length\" (for instance 10.1.0.0/16) that this " +
+                "Rover should advertise as directly reachable. Packets for any address " +
+                "inside it are delivered to this Rover. May be given more than once.");
+        System.out.println();
+
+        System.out.println("[" + WORKER_THREADS_S + " | " + WORKER_THREADS_L + "]: " +
+                "the number of threads that handle received Ripcom packets. Packets of " +
+                "the same source and destination are always handled by the same " +
+                "thread, in order. Defaulted to the number of available processors if " +
+                "not specified.");
+        System.out.println();
+
+        System.out.println("[" + FSYNC_S + " | " + FSYNC_L + "]: when received files " +
+                "are forced to the disk. Either \"none\" (left to the operating " +
+                "system, the default), \"close\" (once a file is complete) or " +
+                "\"always\" (after every write).");
+        System.out.println();
+
+        System.out.println("[" + LINK_MTU_S + " | " + LINK_MTU_L + "]: the MTU of " +
+                "this Rover's link, in bytes. Ripcom packets are sized to the smallest " +
+                "link MTU on their path, which senders find out by sending PROBEs that " +
+                "Rovers drop if they do not fit. Must be at least " +
+                SenderSession.BASE_MTU + ". Defaulted to 1500 if not specified; " +
+                "use 9000 for links with jumbo frames.");
+        System.out.println();
+
+        System.out.println("[" + FEC_S + " | " + FEC_L + "]: forward error " +
+                "correction while sending a file. After every K packets (at most 64), " +
+                "a repair packet is sent that lets the receiver rebuild any one of them " +
+                "that was lost, without waiting for it to be sent again. Defaulted to " +
+                "0 (off) if not specified.");
+        System.out.println();
+
+        System.out.println("[" + COMPRESS_S + " | " + COMPRESS_L + "]: compress " +
+                "every packet of a file that is sent with Deflate. Packets that do " +
+                "not get smaller are sent as they are. Takes no value.");
+        System.out.println();
+
+        System.out.println("[" + ROUTING_S + " | " + ROUTING_L + "]: how routes are " +
+                "found. Either \"rip\" (RIP v2, the default) or \"link-state\" " +
+                "(every Rover floods the list of its neighbours, and shortest paths " +
+                "are computed with Dijkstra's algorithm, which converges within " +
+                "seconds of a Rover moving out of range). Every Rover must use the " +
+                "same one.");
         System.out.println();
 
         System.out.println("[" + VERBOSE_S + " | " + VERBOSE_L + "]: verbose mode " +
@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Writes received files to disk on a thread of its own (write-behind), so that the
+ * sessions receiving them never wait for the disk before sending an ACK.
+ * <p>
+ * A session opens a Sink for its output file and hands it chunks with {@code
+ * Sink.write()}, which only queues the chunk. A single writer thread drains the queue,
+ * gathers every chunk it finds for the same file, and writes them with one call to
+ * {@code FileChannel.write(ByteBuffer[])}. The queue is bounded, so if the disk falls
+ * behind, sessions wait in {@code write()} instead of buffering without limit.
+ * <p>
+ * How often data is forced to the disk is chosen by a Sync policy.
+ * <p>
+ * Once a write to a file fails, the rest of it is dropped, and every later call to
+ * {@code write()} or {@code close()} of its Sink throws. {@code close()} waits until
+ * the file has been written, so a session only reports a file as complete once it
+ * really is.
+ *
+ * @author Soham Dongargaonkar
+ */
+class AsyncFileWriter {
+    private final static int QUEUE_CAPACITY = 4096;     //chunks, 5 to 37 MB by MTU
+    private final static int MAX_BATCH = 256;           //chunks per round of writes
+
+    private final ArrayBlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Sync sync;
+
+    /**
+     * When written data is forced to the disk with {@code FileChannel.force()}.
+     */
+    enum Sync {
+        NONE,       //never; left to the operating system
+        CLOSE,      //once, when a file is complete
+        ALWAYS      //after every round of writes to a file
+    }
+
+    /**
+     * A file being written by the writer thread.
+     */
+    class Sink {
+        private final String name;
+        private FileChannel channel;
+        private volatile boolean failed = false;
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        private Sink(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Queues a chunk to be appended to the file.
+         *
+         * @param data the chunk. It must not be changed afterwards.
+         * @throws IOException          if an earlier chunk could not be written.
+         * @throws InterruptedException if interrupted while the queue is full.
+         */
+        void write(byte[] data) throws IOException, InterruptedException {
+            checkFailed();
+            queue.put(new Chunk(this, ByteBuffer.wrap(data)));
+        }
+
+        /**
+         * Queues the end of the file, and waits until every chunk queued before has
+         * been written and the file is closed.
+         *
+         * @throws IOException          if any chunk could not be written.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void close() throws IOException, InterruptedException {
+            queue.put(new Chunk(this, null));
+            finished.await();
+            checkFailed();
+        }
+
+        private void checkFailed() throws IOException {
+            if (failed) {
+                throw new IOException("Could not write to " + name);
+            }
+        }
+
+        /**
+         * Called on the writer thread. The file is only created here, so that
+         * creating it does not hold up the session either.
+         */
+        private void writeAll(ArrayList<ByteBuffer> chunks) {
+            if (failed) {
+                return;
+            }
+            try {
+                openChannel();
+                ByteBuffer[] buffers = chunks.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for (ByteBuffer buffer : buffers) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                if (sync == Sync.ALWAYS) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("Could not write to " + name + ", dropping the rest " +
+                        "of it.");
+                failed = true;
+                closeChannel();
+            }
+        }
+
+        /**
+         * Called on the writer thread, once every chunk has been written.
+         */
+        private void finish() {
+            if (failed) {
+                finished.countDown();
+                return;
+            }
+            try {
+                openChannel();      //in case the file is empty
+                if (sync != Sync.NONE) {
+                    channel.force(true);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+            closeChannel();
+            finished.countDown();
+        }
+
+        private void openChannel() throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(Paths.get(name), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        }
+
+        private void closeChannel() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A queued chunk of a file, or the end of the file if {@code data} is null.
+     */
+    private static class Chunk {
+        private final Sink sink;
+        private final ByteBuffer data;
+
+        private Chunk(Sink sink, ByteBuffer data) {
+            this.sink = sink;
+            this.data = data;
+        }
+    }
+
+    /**
+     * @param sync when written data is forced to the disk.
+     */
+    AsyncFileWriter(Sync sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    void start() {
+        new Thread(this::run, "file-writer").start();
+    }
+
+    /**
+     * @param name the name of the file. An existing file of that name is overwritten.
+     * @return a Sink that appends to the file.
+     */
+    Sink open(String name) {
+        return new Sink(name);
+    }
+
+    private void run() {
+        ArrayList<Chunk> batch = new ArrayList<>(MAX_BATCH);
+        LinkedHashMap<Sink, ArrayList<ByteBuffer>> bySink = new LinkedHashMap<>();
+        ArrayList<Sink> finished = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            //Gather the chunks of each file, keeping them in order.
+            for (Chunk chunk : batch) {
+                ArrayList<ByteBuffer> chunks =
+                        bySink.computeIfAbsent(chunk.sink, sink -> new ArrayList<>());
+                if (chunk.data != null) {
+                    chunks.add(chunk.data);
+                } else {
+                    finished.add(chunk.sink);
+                }
+            }
+            for (Map.Entry<Sink, ArrayList<ByteBuffer>> entry : bySink.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    entry.getKey().writeAll(entry.getValue());
+                }
+            }
+            for (Sink sink : finished) {
+                sink.finish();
+            }
+            batch.clear();
+            bySink.clear();
+            finished.clear();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Decides how many Ripcom packets a transfer may have in flight. Every SenderSession
+ * has a controller of its own, like the congestion window of a TCP connection, even if
+ * several sessions send to the same Rover. The session tells its controller about
+ * every ACK, every loss detected through duplicate ACKs and every retransmission
+ * timeout, and never keeps more than {@code getWindow()} unacknowledged packets in
+ * its window.
+ *
+ * @author Soham Dongargaonkar
+ */
+interface CongestionController {
+
+    /**
+     * Called when an ACK acknowledges new packets, either cumulatively or through
+     * SACK blocks, while the window was full. ACKs that arrive while the Rover sends
+     * less than the window allows are not reported, so the window only grows as far
+     * as it is actually used.
+     *
+     * @param ackedPackets the number of packets that left the window.
+     * @param rtt          the round trip time measured from this ACK in ms, or -1 if
+     *                     none could be measured (see Karn's algorithm).
+     */
+    void onAck(int ackedPackets, long rtt);
+
+    /**
+     * Called when duplicate ACKs indicate that a packet was lost while later packets
+     * still arrived. Called at most once per window of data.
+     */
+    void onLoss();
+
+    /**
+     * Called when the retransmission timer of the oldest packet in the window expires.
+     */
+    void onTimeout();
+
+    /**
+     * @return the number of packets that may currently be in flight. Always at least 1.
+     */
+    int getWindow();
+}
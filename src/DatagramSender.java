@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends Ripcom packets to next hops through a single non-blocking DatagramChannel,
+ * shared by every thread of a Rover. The InetSocketAddress of each next hop is created
+ * once and cached, keyed by its int address (see IPAddresses), so sending a packet
+ * costs a single {@code send} call.
+ * <p>
+ * Since the channel never blocks, a packet that does not fit into the socket's send
+ * buffer is dropped by {@code send()}, just as it could be dropped anywhere else on
+ * the way. That is right for packets that are forwarded, whose sender will retransmit
+ * them. A session's own packets are sent with {@code sendWaiting()} instead, which
+ * waits for room in the buffer: the session has already counted such a packet as
+ * sent, so dropping it would make its congestion controller back off for a full
+ * local buffer as if the network had lost the packet.
+ *
+ * @author Soham Dongargaonkar
+ */
+class DatagramSender {
+    private final static long MIN_WAIT = 10_000;        //ns, before the first retry
+    private final static long MAX_WAIT = 1_000_000;     //ns
+
+    private final DatagramChannel channel;
+    private final int port;
+    private final IntHashMap<InetSocketAddress> addresses = new IntHashMap<>();
+    private long dropped = 0;
+    private long waits = 0;
+
+    /**
+     * @param port the port that every next hop listens on for Ripcom packets.
+     * @throws IOException if the channel cannot be opened.
+     */
+    DatagramSender(int port) throws IOException {
+        this.port = port;
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Sends the bytes between the position and the limit of {@code packet} to a next
+     * hop. The position of {@code packet} is advanced past the bytes sent.
+     *
+     * @param packet  the encoded packet.
+     * @param nextHop the (real) address of the next hop.
+     * @return true if the packet was sent, false if it was dropped because the send
+     * buffer was full.
+     * @throws IOException if the channel fails.
+     */
+    boolean send(ByteBuffer packet, int nextHop) throws IOException {
+        if (channel.send(packet, getAddress(nextHop)) == 0) {
+            synchronized (this) {
+                dropped++;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a packet like {@code send()}, but waits for the send buffer to drain
+     * instead of dropping the packet if it is full. The wait before each retry
+     * doubles, from MIN_WAIT up to MAX_WAIT, which is far less than any RTO.
+     *
+     * @param packet  the encoded packet.
+     * @param nextHop the (real) address of the next hop.
+     * @throws IOException if the channel fails, or an InterruptedIOException if the
+     *                     calling thread is interrupted while it waits.
+     */
+    void sendWaiting(ByteBuffer packet, int nextHop) throws IOException {
+        InetSocketAddress address = getAddress(nextHop);
+        long wait = MIN_WAIT;
+        while (channel.send(packet, address) == 0) {
+            synchronized (this) {
+                waits++;
+            }
+            LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted while waiting to send");
+            }
+            wait = Math.min(wait * 2, MAX_WAIT);
+        }
+    }
+
+    /**
+     * @return the number of packets dropped because the send buffer was full.
+     */
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of times {@code sendWaiting()} found the send buffer full
+     * and had to wait.
+     */
+    synchronized long getWaits() {
+        return waits;
+    }
+
+    private synchronized InetSocketAddress getAddress(int nextHop)
+            throws UnknownHostException {
+        InetSocketAddress address = addresses.get(nextHop);
+        if (address == null) {
+            byte[] bytes = ByteBuffer.allocate(4).putInt(nextHop).array();
+            address = new InetSocketAddress(InetAddress.getByAddress(bytes), port);
+            addresses.put(nextHop, address);
+        }
+        return address;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * A delay-based congestion controller in the style of TCP Vegas.
+ * <p>
+ * The lowest round trip time seen so far is taken as the round trip time of an
+ * empty path. Comparing it with the current round trip time estimates how many of
+ * this Rover's packets are sitting in queues along the path (in practice, in the
+ * receive buffers of intermediate Rovers). The window is grown by one packet per
+ * round trip while fewer than {@code ALPHA} packets are queued and shrunk by one
+ * while more than {@code BETA} are, so the path is kept busy without building up
+ * queues. Losses are still reacted to, but less sharply than with NewReno.
+ *
+ * @author Soham Dongargaonkar
+ */
+class DelayBasedController implements CongestionController {
+    private static final int INITIAL_WINDOW = 4;
+    private static final double ALPHA = 2;
+    private static final double BETA = 4;
+    private static final double GAMMA = 1;
+
+    private double window = INITIAL_WINDOW;
+    private boolean slowStart = true;
+    private long baseRtt = Long.MAX_VALUE;
+
+    @Override
+    public synchronized void onAck(int ackedPackets, long rtt) {
+        if (rtt < 0) {
+            return;
+        }
+        rtt = Math.max(1, rtt);
+        baseRtt = Math.min(baseRtt, rtt);
+        double queued = window * (rtt - baseRtt) / rtt;
+        if (slowStart) {
+            if (queued > GAMMA) {
+                slowStart = false;
+            } else {
+                window += ackedPackets;
+                return;
+            }
+        }
+        if (queued < ALPHA) {
+            window += (double) ackedPackets / window;
+        } else if (queued > BETA) {
+            window = Math.max(1, window - (double) ackedPackets / window);
+        }
+    }
+
+    @Override
+    public synchronized void onLoss() {
+        slowStart = false;
+        window = Math.max(1, window * 3 / 4);
+    }
+
+    @Override
+    public synchronized void onTimeout() {
+        slowStart = false;
+        window = Math.max(1, window / 2);
+    }
+
+    @Override
+    public synchronized int getWindow() {
+        return Math.max(1, (int) window);
+    }
+}
@@ -0,0 +1,75 @@
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the two ways of encoding a RipcomPacket for sending: {@code encodeTo()}
+ * into a buffer that is reused for every packet, as a Session does, against {@code
+ * getBytes()}, which allocates a new array for every packet.
+ * <p>
+ * Packets of three sizes are encoded: an ACK with no contents, and SEQs that fill the
+ * 1280 byte base MTU and a 9000 byte jumbo frame. A few rounds are run so that the
+ * JIT has compiled both paths before the last round, which is the one to go by.
+ * <p>
+ * Usage: {@code java EncodeBenchmark}.
+ *
+ * @author Soham Dongargaonkar
+ */
+class EncodeBenchmark {
+    private final static int[] MTUS = {0, 1280, 9000};     //0 for an ACK
+    private final static int ENCODES = 2_000_000;          //per round
+    private final static int ROUNDS = 5;
+    private final static int MAX_PACKET_SIZE = 9216;
+
+    private static long checksum = 0;   //keeps the JIT from dropping the encoding
+
+    public static void main(String[] args) {
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        ByteBuffer heapBuffer = ByteBuffer.allocate(MAX_PACKET_SIZE);
+        for (int mtu : MTUS) {
+            byte[] contents = new byte[mtu > 0 ? RipcomPacket.maxContents(mtu) : 0];
+            new Random(mtu).nextBytes(contents);
+            RipcomPacket ripcomPacket = new RipcomPacket(IPAddresses.toInt("10.0.2.0"),
+                    IPAddresses.toInt("10.0.1.0"), 1, mtu > 0 ? Type.SEQ : Type.ACK,
+                    (byte) 0, 1, ByteBuffer.wrap(contents));
+            for (int round = 1; round <= ROUNDS; round++) {
+                long direct = encodeTo(ripcomPacket, directBuffer);
+                long heap = encodeTo(ripcomPacket, heapBuffer);
+                long bytes = getBytes(ripcomPacket);
+                System.out.printf("%5d byte packet, round %d: encodeTo direct %.0f ns, " +
+                                "encodeTo heap %.0f ns, getBytes %.0f ns%n",
+                        ripcomPacket.getEncodedLength(), round, (double) direct / ENCODES,
+                        (double) heap / ENCODES, (double) bytes / ENCODES);
+            }
+        }
+        if (checksum == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return the time taken to encode the packet ENCODES times into {@code buffer},
+     * in ns.
+     */
+    private static long encodeTo(RipcomPacket ripcomPacket, ByteBuffer buffer) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ENCODES; i++) {
+            buffer.clear();
+            ripcomPacket.encodeTo(buffer);
+            checksum += buffer.get(i % buffer.position());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the time taken to encode the packet ENCODES times with {@code
+     * getBytes()}, in ns.
+     */
+    private static long getBytes(RipcomPacket ripcomPacket) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ENCODES; i++) {
+            byte[] bytes = ripcomPacket.getBytes();
+            checksum += bytes[i % bytes.length];
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a transfer takes over a lossy path, for a range of loss rates and
+ * FEC group sizes (see XorParity), so the gain of sending REPAIRs can be weighed
+ * against their overhead.
+ * <p>
+ * Every transfer runs a SenderSession and a ReceiverSession in this process, joined
+ * by a simulated link instead of a network: each packet is dropped with the given
+ * probability, in either direction, and otherwise delivered after a fixed delay.
+ * PROBEs larger than the link MTU are dropped, and the others are answered by the
+ * link the way a Rover answers them. Each combination is run a few times, after one
+ * untimed transfer to warm up the JIT, and the mean completion time is reported, with
+ * the file checked after every transfer. A combination fails if the file differs, or
+ * if any SEQ, FIN or REPAIR was larger than the link MTU, since IP would have had to
+ * fragment it.
+ * <p>
+ * Usage: {@code java FecLossBenchmark [megabytes] [runs]}. The default is a 2 MB file
+ * and 3 runs per combination.
+ *
+ * @author Soham Dongargaonkar
+ */
+class FecLossBenchmark {
+    private final static double[] LOSS_RATES = {0, 0.01, 0.02, 0.05, 0.1};
+    private final static int[] FEC_GROUP_SIZES = {0, 4, 8, 16};
+    private final static int WINDOW_SIZE = 64;
+    private final static int LINK_MTU = 1500;
+    private final static int DELAY = 5;                 //ms, one way
+    private final static int TIME_LIMIT = 120;          //s, per transfer
+    private final static int SENDER_ADDRESS = IPAddresses.toInt("10.0.1.0");
+    private final static int RECEIVER_ADDRESS = IPAddresses.toInt("10.0.2.0");
+
+    private final static ScheduledExecutorService delayer =
+            Executors.newSingleThreadScheduledExecutor();
+    private final static RipcomPacketManager ripcomPacketManager = new RipcomPacketManager();
+    private static volatile boolean oversized = false;  //a packet exceeded LINK_MTU
+
+    /**
+     * One direction of the simulated link.
+     */
+    private static class Link implements Session.PacketSender {
+        private final double loss;
+        private Session far;        //the session at the other end
+        private Link reverse;       //the link back, for PROBE_ACKs
+
+        private Link(double loss) {
+            this.loss = loss;
+        }
+
+        @Override
+        public void send(ByteBuffer packet, int destinationAddress) {
+            byte[] bytes = new byte[packet.remaining()];
+            packet.get(bytes);
+            RipcomPacket ripcomPacket = ripcomPacketManager.getRipcomPacket(bytes);
+            if (bytes.length + RipcomPacket.IP_UDP_OVERHEAD > LINK_MTU) {
+                if (ripcomPacket.getPacketType() == Type.PROBE) {
+                    return;
+                }
+                oversized = true;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < loss) {
+                return;
+            }
+            delayer.schedule(() -> arrive(ripcomPacket), DELAY, TimeUnit.MILLISECONDS);
+        }
+
+        private void arrive(RipcomPacket ripcomPacket) {
+            if (ripcomPacket.getPacketType() == Type.PROBE) {
+                reverse.send(ByteBuffer.wrap(new RipcomPacket(
+                        ripcomPacket.getSourceAddress(),
+                        ripcomPacket.getDestinationAddress(), ripcomPacket.getSessionId(),
+                        Type.PROBE_ACK, ripcomPacket.getNumber(), 0, new byte[0])
+                        .getBytes()), ripcomPacket.getSourceAddress());
+            } else {
+                far.deliver(ripcomPacket);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        File input = File.createTempFile("fec-input", null);
+        File output = File.createTempFile("fec-output", null);
+        input.deleteOnExit();
+        output.deleteOnExit();
+        byte[] contents = new byte[megabytes << 20];
+        new Random(0).nextBytes(contents);
+        Files.write(input.toPath(), contents);
+        AsyncFileWriter fileWriter = new AsyncFileWriter(AsyncFileWriter.Sync.NONE);
+        fileWriter.start();
+
+        //The sessions print every finished transfer; only the results are wanted.
+        PrintStream results = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        transfer(input, output, 0, 0, fileWriter, -1);
+        results.printf("%d MB file, window %d, %d ms RTT, mean of %d runs, in ms%n",
+                megabytes, WINDOW_SIZE, 2 * DELAY, runs);
+        results.print("loss  ");
+        for (int fecGroupSize : FEC_GROUP_SIZES) {
+            results.printf("%10s", fecGroupSize == 0 ? "no FEC" : "FEC " + fecGroupSize);
+        }
+        results.println();
+        for (double loss : LOSS_RATES) {
+            results.printf("%4.0f%% ", loss * 100);
+            for (int fecGroupSize : FEC_GROUP_SIZES) {
+                long total = 0;
+                String failure = null;
+                oversized = false;
+                for (int run = 0; run < runs && failure == null; run++) {
+                    long elapsed = transfer(input, output, loss, fecGroupSize,
+                            fileWriter, run);
+                    if (oversized) {
+                        failure = "OVERSIZED";
+                    } else if (elapsed < 0) {
+                        failure = "timeout";
+                    } else if (!Arrays.equals(contents,
+                            Files.readAllBytes(output.toPath()))) {
+                        failure = "MISMATCH";
+                    }
+                    total += elapsed;
+                }
+                results.printf("%10s", failure != null ? failure : total / runs);
+            }
+            results.println();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Sends {@code input} to {@code output} over a new simulated link.
+     *
+     * @return the time until the sender received the FIN_ACK, in ms, or -1 if that
+     * took longer than {@code TIME_LIMIT}. The receiver is left to time out on its own.
+     */
+    private static long transfer(File input, File output, double loss, int fecGroupSize,
+                                 AsyncFileWriter fileWriter, int sessionId)
+            throws IOException, InterruptedException {
+        Link forward = new Link(loss);
+        Link backward = new Link(loss);
+        forward.reverse = backward;
+        backward.reverse = forward;
+        CountDownLatch finished = new CountDownLatch(1);
+        SenderSession sender = new SenderSession(SENDER_ADDRESS, RECEIVER_ADDRESS,
+                sessionId, input, WINDOW_SIZE, fecGroupSize, false,
+                new NewRenoController(), forward, closed -> finished.countDown(), false);
+        ReceiverSession receiver = new ReceiverSession(RECEIVER_ADDRESS, SENDER_ADDRESS,
+                sessionId, output.getPath(), fileWriter, backward, closed -> { }, false);
+        forward.far = receiver;
+        backward.far = sender;
+
+        Thread receiverThread = new Thread(receiver);
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        long start = Session.now();
+        Thread senderThread = new Thread(sender);
+        senderThread.setDaemon(true);
+        senderThread.start();
+        if (!finished.await(TIME_LIMIT, TimeUnit.SECONDS)) {
+            return -1;
+        }
+        return Session.now() - start;
+    }
+}
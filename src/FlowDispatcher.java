@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Spreads received Ripcom datagrams over a fixed number of worker threads.
+ * <p>
+ * A flow is every packet with the same source address, destination address and
+ * session ID. All packets of a flow are handed to the same worker, chosen by a hash of
+ * these three fields, and each worker handles its packets in the order they were
+ * received. So packets of a single flow are never reordered, while different flows
+ * (even different sessions between the same two Rovers) are handled in parallel.
+ * <p>
+ * Datagrams are received into buffers taken from a shared pool with {@code
+ * takeBuffer()}. A buffer belongs to the worker it is dispatched to until that worker
+ * has finished its batch, and is then returned to the pool. When every buffer is in
+ * use, {@code takeBuffer()} blocks, so a receiver that is faster than the workers
+ * simply stops reading until they catch up.
+ *
+ * @author Soham Dongargaonkar
+ */
+class FlowDispatcher {
+    private final ArrayBlockingQueue<ByteBuffer> pool;
+    private final ArrayList<ArrayBlockingQueue<ByteBuffer>> queues = new ArrayList<>();
+    private final Supplier<Handler> handlers;
+    private final int batchSize;
+
+    /**
+     * Handles the datagrams of a single worker. Every worker gets its own Handler, so
+     * a Handler does not need to be thread safe.
+     */
+    interface Handler {
+        /**
+         * @param datagram a received datagram, between index 0 and its limit. It may be
+         *                 kept (for instance, to be sent on) until {@code endOfBatch()}
+         *                 returns.
+         * @throws IOException if the datagram could not be handled.
+         */
+        void handle(ByteBuffer datagram) throws IOException;
+
+        /**
+         * Called after each batch of datagrams has been handled, before their buffers
+         * are reused.
+         *
+         * @throws IOException if the batch could not be finished.
+         */
+        void endOfBatch() throws IOException;
+    }
+
+    /**
+     * @param workers    the number of worker threads.
+     * @param queueSize  the most datagrams waiting for a single worker.
+     * @param bufferSize the size of each datagram buffer.
+     * @param batchSize  the most datagrams a worker handles before {@code
+     *                   endOfBatch()}.
+     * @param handlers   creates the Handler of each worker. It is called on the worker
+     *                   thread itself, before the worker handles its first datagram.
+     */
+    FlowDispatcher(int workers, int queueSize, int bufferSize, int batchSize,
+                   Supplier<Handler> handlers) {
+        this.handlers = handlers;
+        this.batchSize = batchSize;
+        pool = new ArrayBlockingQueue<>(workers * queueSize);
+        for (int i = 0; i < workers * queueSize; i++) {
+            pool.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        for (int i = 0; i < workers; i++) {
+            queues.add(new ArrayBlockingQueue<>(queueSize));
+        }
+    }
+
+    /**
+     * Starts the worker threads.
+     */
+    void start() {
+        for (int i = 0; i < queues.size(); i++) {
+            ArrayBlockingQueue<ByteBuffer> queue = queues.get(i);
+            Thread worker = new Thread(() -> work(queue), "ripcom-worker-" + i);
+            worker.start();
+        }
+    }
+
+    /**
+     * @return an empty buffer from the pool, waiting for one if all of them are in use.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    ByteBuffer takeBuffer() throws InterruptedException {
+        ByteBuffer buffer = pool.take();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Hands a received datagram to the worker of its flow. Datagrams too short to hold
+     * both addresses and the session ID go straight back to the pool.
+     *
+     * @param datagram a buffer from {@code takeBuffer()}, holding a datagram between
+     *                 index 0 and its limit.
+     * @throws InterruptedException if interrupted while the worker's queue is full.
+     */
+    void dispatch(ByteBuffer datagram) throws InterruptedException {
+        if (datagram.limit() < RipcomPacketView.PACKET_TYPE_OFFSET) {
+            pool.add(datagram);
+            return;
+        }
+        int hash = flowHash(datagram.getInt(RipcomPacketView.SOURCE_IP_OFFSET),
+                datagram.getInt(RipcomPacketView.DESTINATION_IP_OFFSET),
+                datagram.getInt(RipcomPacketView.SESSION_ID_OFFSET));
+        queues.get(Math.floorMod(hash, queues.size())).put(datagram);
+    }
+
+    private void work(ArrayBlockingQueue<ByteBuffer> queue) {
+        Handler handler = handlers.get();
+        ArrayList<ByteBuffer> batch = new ArrayList<>(batchSize);
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            for (ByteBuffer datagram : batch) {
+                try {
+                    handler.handle(datagram);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                handler.endOfBatch();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pool.addAll(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Mixes the fields of a flow into a single hash (the finalizer of MurmurHash3), so
+     * that flows between neighbouring subnets still spread evenly. Rovers also use it
+     * to spread flows over equal-cost next hops.
+     */
+    static int flowHash(int sourceAddress, int destinationAddress,
+                        int sessionId) {
+        int hash = (sourceAddress * 31 + destinationAddress) * 31 + sessionId;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
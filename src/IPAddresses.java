@@ -0,0 +1,54 @@
+/**
+ * Converts IPv4 addresses between their dotted String form and a 32 bit int, so that
+ * addresses can be written to and read from packets without going through {@code
+ * InetAddress}. The int holds the first octet in its most significant byte, i.e. the
+ * same order the address has on the wire.
+ *
+ * @author Soham Dongargaonkar
+ */
+class IPAddresses {
+
+    /**
+     * Parses a dotted IPv4 address such as "10.0.3.0".
+     *
+     * @param ip the address in String form.
+     * @return the address as an int.
+     * @throws IllegalArgumentException if {@code ip} is not a dotted IPv4 address.
+     */
+    static int toInt(String ip) {
+        int address = 0;
+        int octet = 0;
+        int octets = 0;
+        int digits = 0;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (digits == 0 || octet > 255) {
+                    throw new IllegalArgumentException("Not an IPv4 address: " + ip);
+                }
+                address = (address << 8) | octet;
+                octets++;
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                digits++;
+            } else {
+                throw new IllegalArgumentException("Not an IPv4 address: " + ip);
+            }
+        }
+        if (octets != 4) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + ip);
+        }
+        return address;
+    }
+
+    /**
+     * @param address an IPv4 address as an int.
+     * @return the dotted String form of the address.
+     */
+    static String toString(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." +
+                ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+}
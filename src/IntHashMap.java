@@ -0,0 +1,146 @@
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive ints to values, using open addressing with linear
+ * probing. Keys are never boxed, so looking up an IPv4 address (see IPAddresses) does
+ * not allocate anything. Every int, including 0, is a valid key.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <V> the type of the values.
+ * @author Soham Dongargaonkar
+ */
+class IntHashMap<V> {
+    private static final int INITIAL_CAPACITY = 16;     //must be a power of two
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    IntHashMap() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @param key the key to look up.
+     * @return the value for {@code key}, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Associates {@code value} with {@code key}, replacing any previous value.
+     *
+     * @param key   the key.
+     * @param value the value, which must not be null.
+     * @return the previous value for {@code key}, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("IntHashMap does not hold null values");
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        if (size > keys.length * LOAD_FACTOR) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the value for {@code key}. The entries after it in the same run are
+     * shifted back, so no tombstones are left behind.
+     *
+     * @param key the key.
+     * @return the removed value, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == null) {
+            return null;
+        }
+        V removed = (V) values[i];
+        values[i] = null;
+        size--;
+
+        int j = (i + 1) & mask;
+        while (values[j] != null) {
+            int home = hash(keys[j]) & mask;
+            //move the entry at j into the gap at i if i lies on its probe path.
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                values[j] = null;
+                i = j;
+            }
+            j = (j + 1) & mask;
+        }
+        return removed;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = hash(oldKeys[i]) & mask;
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads the bits of a key, since addresses in the same subnet only differ in a
+     * few bits (the finalizer of MurmurHash3).
+     */
+    private static int hash(int key) {
+        key ^= key >>> 16;
+        key *= 0x85ebca6b;
+        key ^= key >>> 13;
+        key *= 0xc2b2ae35;
+        key ^= key >>> 16;
+        return key;
+    }
+}
@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Link-state routing, an alternative to RIP that converges as soon as a change has
+ * been flooded instead of after several update intervals.
+ * <p>
+ * Every Rover multicasts a HELLO every {@code HELLO_INTERVAL}. A Rover that is heard
+ * from is a neighbour, until nothing has been heard from it for {@code DEAD_INTERVAL}.
+ * Whenever its neighbours change (and every {@code REFRESH_INTERVAL} besides), a Rover
+ * multicasts a link-state advertisement (LSA) with a new sequence number, listing its
+ * neighbours and the prefixes it owns. Every Rover keeps the newest LSA of every Rover
+ * in its link-state database (LSDB), and multicasts each LSA it had not seen before
+ * once more, so LSAs are flooded to Rovers that cannot hear their origin. LSAs that
+ * are not refreshed within {@code MAX_AGE} are dropped.
+ * <p>
+ * Whenever the LSDB changes, Dijkstra's algorithm is run over it from this Rover, and
+ * every prefix of every reachable Rover becomes a RoutingTableEntry whose next hops are
+ * the neighbours on its shortest paths, and whose cost is the number of hops. A link is
+ * only used if the LSAs of both of its ends list each other. LSAs that are refreshed
+ * without changing do not cause a run.
+ * <p>
+ * Messages use command bytes that RIP does not use, so both can share the multicast
+ * group. A HELLO is just a header: the command, the version, a zero byte and the
+ * rover ID of the sender. An LSA is a header followed by its sequence number (4
+ * bytes), the number of neighbours and of prefixes (2 bytes each), the rover ID of
+ * each neighbour (1 byte each), and the address (4 bytes) and length (1 byte) of each
+ * prefix.
+ *
+ * @author Soham Dongargaonkar
+ */
+class LinkStateRouter {
+    static final byte HELLO = 0x10;
+    static final byte LSA = 0x11;
+    static final int MAX_MESSAGE_SIZE = 1400;
+
+    private final static byte VERSION = 1;
+    private final static int HEADER_SIZE = 4;
+    private final static int LSA_HEADER_SIZE = HEADER_SIZE + 8;
+    private final static int PREFIX_SIZE = 5;
+    private final static int MAX_ROVERS = 256;
+    private final static int HELLO_INTERVAL = 1000;
+    private final static int DEAD_INTERVAL = 3500;
+    private final static int REFRESH_INTERVAL = 10000;
+    private final static int MAX_AGE = 4 * REFRESH_INTERVAL;
+
+    private final int roverID;
+    private final List<RoutingTableEntry> ownPrefixes;
+    private final TimerWheel timerWheel;
+    private final RIPCodec.MessageSender sender;
+    private final Consumer<List<RoutingTableEntry>> routeSink;
+    private final HashMap<Integer, Neighbour> neighbours = new HashMap<>();
+    private final HashMap<Integer, Advertisement> lsdb = new HashMap<>();
+    private final byte[] message = new byte[MAX_MESSAGE_SIZE];
+    private int sequence;
+
+    /**
+     * A Rover that this Rover hears HELLOs from.
+     */
+    private static class Neighbour {
+        private final int address;              //the (real) address HELLOs come from
+        private TimerWheel.Timeout deadTimer;
+
+        private Neighbour(int address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * The newest LSA of a Rover.
+     */
+    private static class Advertisement {
+        private final int sequence;
+        private final int[] neighbours;         //rover IDs
+        private final RoutingTableEntry[] prefixes;
+        private long received;
+
+        private Advertisement(int sequence, int[] neighbours, RoutingTableEntry[] prefixes) {
+            this.sequence = sequence;
+            this.neighbours = neighbours;
+            this.prefixes = prefixes;
+            this.received = System.currentTimeMillis();
+        }
+
+        private boolean lists(int roverID) {
+            for (int neighbour : neighbours) {
+                if (neighbour == roverID) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean sameLinks(Advertisement other) {
+            return Arrays.equals(neighbours, other.neighbours)
+                    && Arrays.equals(prefixes, other.prefixes, (a, b) ->
+                    a.address == b.address && a.mask == b.mask ? 0 : 1);
+        }
+    }
+
+    /**
+     * @param roverID     the ID of this Rover.
+     * @param ownPrefixes the prefixes this Rover owns, which are put into its LSAs.
+     *                    Only their address and mask are used. As many as fit into
+     *                    {@code MAX_MESSAGE_SIZE} are advertised.
+     * @param timerWheel  runs the HELLOs, refreshes and neighbour timeouts.
+     * @param sender      multicasts a message.
+     * @param routeSink   is given every route to another Rover's prefix after each
+     *                    run of Dijkstra's algorithm.
+     */
+    LinkStateRouter(int roverID, List<RoutingTableEntry> ownPrefixes, TimerWheel timerWheel,
+                    RIPCodec.MessageSender sender,
+                    Consumer<List<RoutingTableEntry>> routeSink) {
+        int maxPrefixes = (MAX_MESSAGE_SIZE - LSA_HEADER_SIZE - MAX_ROVERS) / PREFIX_SIZE;
+        if (ownPrefixes.size() > maxPrefixes) {
+            System.out.println("Only the first " + maxPrefixes + " prefixes fit into " +
+                    "an LSA, ignoring the rest");
+            ownPrefixes = ownPrefixes.subList(0, maxPrefixes);
+        }
+        this.roverID = roverID & 0xFF;
+        this.ownPrefixes = new ArrayList<>(ownPrefixes);
+        this.timerWheel = timerWheel;
+        this.sender = sender;
+        this.routeSink = routeSink;
+        //Start above any sequence number sent before a restart of this Rover.
+        this.sequence = (int) (System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Sends the first HELLO and LSA, and schedules the ones after them.
+     */
+    void start() {
+        timerWheel.scheduleAtFixedRate(this::sendHello, 0, HELLO_INTERVAL);
+        timerWheel.scheduleAtFixedRate(this::refresh, 0, REFRESH_INTERVAL);
+    }
+
+    /**
+     * Handles a message received on the multicast group.
+     *
+     * @param message       the message, from index 0.
+     * @param length        the length of the message.
+     * @param senderAddress the (real) address the message came from.
+     * @return false if the message is not a link-state message, e.g. a RIP message.
+     */
+    synchronized boolean receive(byte[] message, int length, int senderAddress) {
+        if (length < HEADER_SIZE || (message[0] != HELLO && message[0] != LSA)
+                || message[1] != VERSION) {
+            return false;
+        }
+        int origin = message[3] & 0xFF;
+        if (message[0] == HELLO) {
+            if (origin != roverID) {
+                acceptHello(origin, senderAddress);
+            }
+        } else {
+            acceptAdvertisement(origin, message, length);
+        }
+        return true;
+    }
+
+    private void acceptHello(int origin, int senderAddress) {
+        Neighbour neighbour = neighbours.get(origin);
+        boolean changed = neighbour == null || neighbour.address != senderAddress;
+        if (changed) {
+            if (neighbour != null) {
+                timerWheel.cancel(neighbour.deadTimer);
+            }
+            neighbour = new Neighbour(senderAddress);
+            neighbours.put(origin, neighbour);
+        } else {
+            timerWheel.cancel(neighbour.deadTimer);
+        }
+        Neighbour heard = neighbour;
+        neighbour.deadTimer = timerWheel.schedule(() -> neighbourDead(origin, heard),
+                DEAD_INTERVAL);
+        if (changed) {
+            originate();
+            runDijkstra();
+        }
+    }
+
+    private synchronized void neighbourDead(int origin, Neighbour neighbour) {
+        if (neighbours.remove(origin, neighbour)) {
+            System.out.println(IPAddresses.toString(neighbour.address) + " (Rover " +
+                    origin + ") timed out!");
+            originate();
+            runDijkstra();
+        }
+    }
+
+    private void acceptAdvertisement(int origin, byte[] message, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(message, 0, length);
+        buffer.position(HEADER_SIZE);
+        if (buffer.remaining() < LSA_HEADER_SIZE - HEADER_SIZE) {
+            return;
+        }
+        int sequence = buffer.getInt();
+        int neighbourCount = buffer.getShort() & 0xFFFF;
+        int prefixCount = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() < neighbourCount + prefixCount * PREFIX_SIZE) {
+            return;
+        }
+        if (origin == roverID) {
+            if (sequence - this.sequence > 0) {
+                //Sent before a restart; flush it out with a newer one.
+                this.sequence = sequence;
+                originate();
+            }
+            return;
+        }
+        Advertisement current = lsdb.get(origin);
+        if (current != null && sequence - current.sequence <= 0) {
+            return;
+        }
+
+        int[] neighbourIDs = new int[neighbourCount];
+        for (int i = 0; i < neighbourCount; i++) {
+            neighbourIDs[i] = buffer.get() & 0xFF;
+        }
+        ArrayList<RoutingTableEntry> prefixes = new ArrayList<>(prefixCount);
+        for (int i = 0; i < prefixCount; i++) {
+            int address = buffer.getInt();
+            byte mask = buffer.get();
+            if (mask >= 0 && mask <= 32) {
+                prefixes.add(new RoutingTableEntry(address, mask, 0, (byte) 0));
+            }
+        }
+        Advertisement advertisement = new Advertisement(sequence, neighbourIDs,
+                prefixes.toArray(new RoutingTableEntry[0]));
+        lsdb.put(origin, advertisement);
+        send(message, length);      //flood it on
+        if (current == null || !current.sameLinks(advertisement)) {
+            runDijkstra();
+        }
+    }
+
+    /**
+     * Called by the timer wheel every {@code REFRESH_INTERVAL}. Sends a new LSA for
+     * this Rover, and drops the LSAs of other Rovers that are older than {@code
+     * MAX_AGE}.
+     */
+    private synchronized void refresh() {
+        originate();
+        long now = System.currentTimeMillis();
+        if (lsdb.values().removeIf(lsa -> now - lsa.received > MAX_AGE)) {
+            runDijkstra();
+        }
+    }
+
+    private void sendHello() {
+        byte[] hello = {HELLO, VERSION, 0, (byte) roverID};
+        send(hello, hello.length);
+    }
+
+    /**
+     * Sends a new LSA for this Rover, listing its current neighbours.
+     */
+    private void originate() {
+        sequence++;
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        buffer.put(LSA).put(VERSION).put((byte) 0).put((byte) roverID);
+        buffer.putInt(sequence);
+        buffer.putShort((short) neighbours.size());
+        buffer.putShort((short) ownPrefixes.size());
+        for (int neighbour : neighbours.keySet()) {
+            buffer.put((byte) neighbour);
+        }
+        for (RoutingTableEntry prefix : ownPrefixes) {
+            buffer.putInt(prefix.address);
+            buffer.put(prefix.mask);
+        }
+        send(message, buffer.position());
+    }
+
+    private void send(byte[] message, int length) {
+        try {
+            sender.send(message, length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from this Rover over the LSDB, and hands a route for
+     * every prefix of every reachable Rover to {@code routeSink}. Each route has the
+     * first hop of every shortest path to its Rover as a next hop, so equal-cost paths
+     * are all used. If two Rovers own the same prefix, the nearer one is used.
+     * Prefixes this Rover owns are left out.
+     */
+    private void runDijkstra() {
+        int[] cost = new int[MAX_ROVERS];
+        BitSet[] firstHops = new BitSet[MAX_ROVERS];     //rover IDs of neighbours
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        cost[roverID] = 0;
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));
+        for (int neighbour : neighbours.keySet()) {
+            Advertisement lsa = lsdb.get(neighbour);
+            if (lsa != null && lsa.lists(roverID)) {
+                cost[neighbour] = 1;
+                firstHops[neighbour] = new BitSet(MAX_ROVERS);
+                firstHops[neighbour].set(neighbour);
+                queue.add(new int[]{1, neighbour});
+            }
+        }
+
+        ArrayList<RoutingTableEntry> routes = new ArrayList<>();
+        HashSet<Long> routed = new HashSet<>();
+        for (RoutingTableEntry prefix : ownPrefixes) {
+            routed.add(prefixKey(prefix));
+        }
+        while (!queue.isEmpty()) {
+            int[] next = queue.poll();
+            int rover = next[1];
+            if (next[0] > cost[rover]) {
+                continue;       //already reached at a lower cost
+            }
+            Advertisement lsa = lsdb.get(rover);
+            int[] nextHops = getAddresses(firstHops[rover]);
+            byte hops = (byte) Math.min(cost[rover], Byte.MAX_VALUE);
+            for (RoutingTableEntry prefix : lsa.prefixes) {
+                if (routed.add(prefixKey(prefix))) {
+                    routes.add(new RoutingTableEntry(prefix.address, prefix.mask,
+                            nextHops, hops));
+                }
+            }
+            for (int neighbour : lsa.neighbours) {
+                Advertisement other = lsdb.get(neighbour);
+                int newCost = cost[rover] + 1;
+                if (other == null || !other.lists(rover) || newCost > cost[neighbour]) {
+                    continue;
+                }
+                if (newCost < cost[neighbour]) {
+                    cost[neighbour] = newCost;
+                    firstHops[neighbour] = (BitSet) firstHops[rover].clone();
+                    queue.add(new int[]{newCost, neighbour});
+                } else {
+                    firstHops[neighbour].or(firstHops[rover]);  //an equal-cost path
+                }
+            }
+        }
+        routeSink.accept(routes);
+    }
+
+    /**
+     * @param roverIDs the rover IDs of some neighbours.
+     * @return the (real) addresses of these neighbours, without duplicates, in the
+     * order of their rover IDs.
+     */
+    private int[] getAddresses(BitSet roverIDs) {
+        int[] addresses = new int[roverIDs.cardinality()];
+        int count = 0;
+        for (int id = roverIDs.nextSetBit(0); id >= 0; id = roverIDs.nextSetBit(id + 1)) {
+            int address = neighbours.get(id).address;
+            boolean duplicate = false;
+            for (int i = 0; i < count; i++) {
+                duplicate |= addresses[i] == address;
+            }
+            if (!duplicate) {
+                addresses[count++] = address;
+            }
+        }
+        return Arrays.copyOf(addresses, count);
+    }
+
+    private static long prefixKey(RoutingTableEntry prefix) {
+        return ((long) prefix.address << 8) | prefix.mask;
+    }
+}
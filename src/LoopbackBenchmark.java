@@ -0,0 +1,177 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many datagrams a single relay thread forwards per second over
+ * loopback, with and without batching.
+ * <p>
+ * A source thread sends SEQ-sized datagrams to the relay as fast as it can, and a
+ * sink counts what the relay sends on to it. The relay works in one of two ways:
+ * <ul>
+ * <li>unbatched: a blocking receive of one datagram, then sending it on at once, as
+ * Rovers did before batching.
+ * <li>batched: the way {@code Rover.udpServer()} works now. The channel is drained
+ * into pooled buffers whenever it is readable, and a FlowDispatcher with one worker
+ * adds each datagram to a SendBatch, which is flushed once per batch.
+ * </ul>
+ * Both relays send through a DatagramSender, which drops what does not fit into the
+ * socket's send buffer; such drops are reported too. Each mode is run for a few
+ * seconds, a few times in turn, so the JIT has compiled both before the last rounds.
+ * <p>
+ * Usage: {@code java LoopbackBenchmark}.
+ *
+ * @author Soham Dongargaonkar
+ */
+class LoopbackBenchmark {
+    private final static int PACKET_SIZE = 1252;        //a SEQ on the 1280 byte base MTU
+    private final static int RECEIVE_SIZE = 9216;
+    private final static int BATCH_SIZE = 32;
+    private final static int WORKER_QUEUE_SIZE = 128;
+    private final static int DURATION = 3000;           //ms per run
+    private final static int ROUNDS = 3;
+    private final static int LOOPBACK = IPAddresses.toInt("127.0.0.1");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (int round = 1; round <= ROUNDS; round++) {
+            for (boolean batched : new boolean[]{false, true}) {
+                run(batched, round);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(boolean batched, int round)
+            throws IOException, InterruptedException {
+        DatagramChannel sink = DatagramChannel.open();
+        sink.bind(new InetSocketAddress("127.0.0.1", 0));
+        DatagramChannel relay = DatagramChannel.open();
+        relay.bind(new InetSocketAddress("127.0.0.1", 0));
+        DatagramChannel source = DatagramChannel.open();
+        DatagramSender sender = new DatagramSender(
+                ((InetSocketAddress) sink.getLocalAddress()).getPort());
+        AtomicLong received = new AtomicLong();
+
+        Thread sinkThread = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECEIVE_SIZE);
+            try {
+                while (true) {
+                    buffer.clear();
+                    sink.receive(buffer);
+                    received.incrementAndGet();
+                }
+            } catch (ClosedChannelException e) {
+                //the run is over
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread relayThread = new Thread(() -> {
+            try {
+                if (batched) {
+                    relayBatched(relay, sender);
+                } else {
+                    relayUnbatched(relay, sender);
+                }
+            } catch (ClosedChannelException e) {
+                //the run is over
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        Thread sourceThread = new Thread(() -> {
+            ByteBuffer packet = ByteBuffer.allocateDirect(PACKET_SIZE);
+            InetSocketAddress target;
+            try {
+                target = new InetSocketAddress("127.0.0.1",
+                        ((InetSocketAddress) relay.getLocalAddress()).getPort());
+                while (true) {
+                    packet.clear();
+                    packet.putInt(RipcomPacketView.DESTINATION_IP_OFFSET,
+                            ThreadLocalRandom.current().nextInt());    //many flows
+                    source.send(packet, target);
+                }
+            } catch (ClosedChannelException e) {
+                //the run is over
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        sinkThread.start();
+        relayThread.start();
+        sourceThread.start();
+        Thread.sleep(DURATION);
+        long count = received.get();
+        long dropped = sender.getDropped();
+        source.close();
+        relay.close();
+        sink.close();
+        sourceThread.join();
+        relayThread.join();
+        sinkThread.join();
+        System.out.printf("round %d, %-9s: %.0fk datagrams/s relayed, %.0fk/s dropped " +
+                        "at the relay's send buffer%n", round,
+                batched ? "batched" : "unbatched", count / (double) DURATION,
+                dropped / (double) DURATION);
+    }
+
+    private static void relayUnbatched(DatagramChannel relay, DatagramSender sender)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RECEIVE_SIZE);
+        while (true) {
+            buffer.clear();
+            relay.receive(buffer);
+            buffer.flip();
+            sender.send(buffer, LOOPBACK);
+        }
+    }
+
+    private static void relayBatched(DatagramChannel relay, DatagramSender sender)
+            throws IOException, InterruptedException {
+        relay.configureBlocking(false);
+        Selector selector = Selector.open();
+        relay.register(selector, SelectionKey.OP_READ);
+        FlowDispatcher dispatcher = new FlowDispatcher(1, WORKER_QUEUE_SIZE, RECEIVE_SIZE,
+                BATCH_SIZE, () -> {
+            SendBatch batch = new SendBatch(sender, BATCH_SIZE, RECEIVE_SIZE);
+            return new FlowDispatcher.Handler() {
+                @Override
+                public void handle(ByteBuffer datagram) throws IOException {
+                    batch.add(datagram, LOOPBACK);
+                }
+
+                @Override
+                public void endOfBatch() throws IOException {
+                    batch.flush();
+                }
+            };
+        });
+        dispatcher.start();
+        ByteBuffer buffer = null;
+        try {
+            while (relay.isOpen()) {
+                selector.select(100);
+                selector.selectedKeys().clear();
+                while (true) {
+                    if (buffer == null) {
+                        buffer = dispatcher.takeBuffer();
+                    }
+                    if (relay.receive(buffer) == null) {
+                        break;
+                    }
+                    buffer.flip();
+                    dispatcher.dispatch(buffer);
+                    buffer = null;
+                }
+            }
+        } finally {
+            selector.close();
+        }
+    }
+}
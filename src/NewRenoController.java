@@ -0,0 +1,45 @@
+/**
+ * A loss-based AIMD congestion controller in the style of TCP NewReno (RFC 6582).
+ * <p>
+ * The window starts at {@code INITIAL_WINDOW} and grows by one packet for every
+ * acknowledged packet (slow start) until it reaches the slow start threshold, after
+ * which it grows by one packet per round trip (congestion avoidance). A loss halves
+ * the window, and a timeout brings it back to one packet.
+ *
+ * @author Soham Dongargaonkar
+ */
+class NewRenoController implements CongestionController {
+    private static final int INITIAL_WINDOW = 4;
+    private static final int MIN_THRESHOLD = 2;
+
+    private double window = INITIAL_WINDOW;
+    private double slowStartThreshold = Integer.MAX_VALUE;
+
+    @Override
+    public synchronized void onAck(int ackedPackets, long rtt) {
+        for (int i = 0; i < ackedPackets; i++) {
+            if (window < slowStartThreshold) {
+                window += 1;
+            } else {
+                window += 1 / window;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onLoss() {
+        slowStartThreshold = Math.max(window / 2, MIN_THRESHOLD);
+        window = slowStartThreshold;
+    }
+
+    @Override
+    public synchronized void onTimeout() {
+        slowStartThreshold = Math.max(window / 2, MIN_THRESHOLD);
+        window = 1;
+    }
+
+    @Override
+    public synchronized int getWindow() {
+        return Math.max(1, (int) window);
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Holds encoded Ripcom packets whose destination has no usable route yet, so that the
+ * thread that wanted to send them never has to wait for one.
+ * <p>
+ * Packets are queued per destination address. Each queue holds at most {@code
+ * maxPerDestination} packets; when it is full, the oldest packet is dropped to make
+ * room. Packets that are still waiting after {@code timeout} ms are dropped by {@code
+ * expire()}. Whenever the routing table changes, {@code takeRoutable()} hands back
+ * every packet whose destination can now be reached.
+ *
+ * @author Soham Dongargaonkar
+ */
+class PendingPackets {
+    private final IntHashMap<ArrayDeque<Pending>> byDestination = new IntHashMap<>();
+    private final ArrayList<Integer> destinations = new ArrayList<>();
+    private final int maxPerDestination;
+    private final long timeout;
+    private int size = 0;
+
+    /**
+     * A single parked packet.
+     */
+    static class Pending {
+        final int destinationAddress;
+        final byte[] packet;
+        private final long deadline;
+
+        private Pending(int destinationAddress, byte[] packet, long deadline) {
+            this.destinationAddress = destinationAddress;
+            this.packet = packet;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * @param maxPerDestination the most packets kept for a single destination.
+     * @param timeout           how long a packet may wait, in ms.
+     */
+    PendingPackets(int maxPerDestination, long timeout) {
+        this.maxPerDestination = maxPerDestination;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Parks a packet until its destination becomes reachable.
+     *
+     * @param destinationAddress the destination of the packet.
+     * @param packet             the encoded packet. It is kept as it is, so it must
+     *                           not be reused by the caller.
+     * @return true if an older packet for the same destination had to be dropped.
+     */
+    synchronized boolean add(int destinationAddress, byte[] packet) {
+        ArrayDeque<Pending> queue = byDestination.get(destinationAddress);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            byDestination.put(destinationAddress, queue);
+            destinations.add(destinationAddress);
+        }
+        boolean dropped = false;
+        if (queue.size() >= maxPerDestination) {
+            queue.removeFirst();
+            size--;
+            dropped = true;
+        }
+        queue.addLast(new Pending(destinationAddress, packet,
+                System.currentTimeMillis() + timeout));
+        size++;
+        return dropped;
+    }
+
+    /**
+     * Removes and returns, oldest first per destination, every packet for which
+     * {@code routable} accepts the destination.
+     *
+     * @param routable decides whether a destination can be reached now.
+     * @return the packets that can now be sent.
+     */
+    synchronized List<Pending> takeRoutable(IntPredicate routable) {
+        List<Pending> routablePackets = new ArrayList<>();
+        Iterator<Integer> iterator = destinations.iterator();
+        while (iterator.hasNext()) {
+            int destinationAddress = iterator.next();
+            if (routable.test(destinationAddress)) {
+                ArrayDeque<Pending> queue = byDestination.remove(destinationAddress);
+                size -= queue.size();
+                routablePackets.addAll(queue);
+                iterator.remove();
+            }
+        }
+        return routablePackets;
+    }
+
+    /**
+     * Drops every packet that has been waiting for longer than the timeout.
+     *
+     * @return the number of packets dropped.
+     */
+    synchronized int expire() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        Iterator<Integer> iterator = destinations.iterator();
+        while (iterator.hasNext()) {
+            int destinationAddress = iterator.next();
+            ArrayDeque<Pending> queue = byDestination.get(destinationAddress);
+            while (!queue.isEmpty() && queue.peekFirst().deadline <= now) {
+                queue.removeFirst();
+                expired++;
+            }
+            if (queue.isEmpty()) {
+                byDestination.remove(destinationAddress);
+                iterator.remove();
+            }
+        }
+        size -= expired;
+        return expired;
+    }
+
+    /**
+     * @return the number of packets that are waiting.
+     */
+    synchronized int size() {
+        return size;
+    }
+}
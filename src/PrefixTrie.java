@@ -0,0 +1,235 @@
+import java.util.function.Predicate;
+
+/**
+ * A path compressed binary trie (Patricia trie) of IPv4 prefixes, used to find the
+ * longest prefix that matches an address.
+ * <p>
+ * Every node holds a prefix and its length, and optionally a value. A node only
+ * exists where a value is stored or where two branches split, so a lookup visits at
+ * most one node per distinct prefix length on the path to the address, and never more
+ * than 33 nodes.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <V> the type of the values.
+ * @author Soham Dongargaonkar
+ */
+class PrefixTrie<V> {
+    private Node<V> root;
+    private int size = 0;
+
+    private static class Node<V> {
+        private final int prefix;
+        private final int length;
+        private V value;
+        private Node<V> zero;
+        private Node<V> one;
+
+        private Node(int prefix, int length) {
+            this.prefix = prefix;
+            this.length = length;
+        }
+
+        private Node<V> child(int bit) {
+            return bit == 0 ? zero : one;
+        }
+
+        private void setChild(int bit, Node<V> node) {
+            if (bit == 0) {
+                zero = node;
+            } else {
+                one = node;
+            }
+        }
+    }
+
+    /**
+     * @param length a prefix length, from 0 to 32.
+     * @return the netmask for that length as an int.
+     */
+    static int mask(int length) {
+        return length == 0 ? 0 : -1 << (32 - length);
+    }
+
+    /**
+     * @return the bit of {@code address} at {@code index}, counting from the most
+     * significant bit.
+     */
+    private static int bit(int address, int index) {
+        return (address >>> (31 - index)) & 1;
+    }
+
+    /**
+     * Stores a value for a prefix, replacing any value already stored for it. Bits of
+     * {@code prefix} past {@code length} are ignored.
+     *
+     * @param prefix the network address.
+     * @param length the prefix length, from 0 to 32.
+     * @param value  the value, which must not be null.
+     * @return the previous value for the prefix, or null if there was none.
+     */
+    V put(int prefix, int length, V value) {
+        prefix &= mask(length);
+        if (root == null) {
+            root = new Node<>(prefix, length);
+            root.value = value;
+            size++;
+            return null;
+        }
+        Node<V> parent = null;
+        int parentBit = 0;
+        Node<V> node = root;
+        while (true) {
+            int common = Math.min(Math.min(length, node.length),
+                    Integer.numberOfLeadingZeros(prefix ^ node.prefix));
+            if (common == node.length) {
+                if (length == node.length) {
+                    V previous = node.value;
+                    node.value = value;
+                    if (previous == null) {
+                        size++;
+                    }
+                    return previous;
+                }
+                int nextBit = bit(prefix, node.length);
+                Node<V> next = node.child(nextBit);
+                if (next == null) {
+                    Node<V> leaf = new Node<>(prefix, length);
+                    leaf.value = value;
+                    node.setChild(nextBit, leaf);
+                    size++;
+                    return null;
+                }
+                parent = node;
+                parentBit = nextBit;
+                node = next;
+                continue;
+            }
+
+            //The new prefix branches off in the middle of this node's prefix.
+            Node<V> split = new Node<>(prefix & mask(common), common);
+            split.setChild(bit(node.prefix, common), node);
+            if (common == length) {
+                split.value = value;
+            } else {
+                Node<V> leaf = new Node<>(prefix, length);
+                leaf.value = value;
+                split.setChild(bit(prefix, common), leaf);
+            }
+            if (parent == null) {
+                root = split;
+            } else {
+                parent.setChild(parentBit, split);
+            }
+            size++;
+            return null;
+        }
+    }
+
+    /**
+     * @param prefix the network address.
+     * @param length the prefix length, from 0 to 32.
+     * @return the value stored for exactly this prefix, or null if there is none.
+     */
+    V get(int prefix, int length) {
+        Node<V> node = find(prefix & mask(length), length);
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * Removes the value stored for a prefix, and any node that is no longer needed.
+     *
+     * @param prefix the network address.
+     * @param length the prefix length, from 0 to 32.
+     * @return the removed value, or null if there was none.
+     */
+    V remove(int prefix, int length) {
+        prefix &= mask(length);
+        Node<V> grandparent = null;
+        Node<V> parent = null;
+        Node<V> node = root;
+        while (node != null && node.length < length
+                && (prefix & mask(node.length)) == node.prefix) {
+            grandparent = parent;
+            parent = node;
+            node = node.child(bit(prefix, node.length));
+        }
+        if (node == null || node.length != length || node.prefix != prefix
+                || node.value == null) {
+            return null;
+        }
+        V removed = node.value;
+        node.value = null;
+        size--;
+
+        if (node.zero != null && node.one != null) {
+            return removed;
+        }
+        replace(parent, node, node.zero != null ? node.zero : node.one);
+        //The parent may now be a valueless node with a single child.
+        if (parent != null && parent.value == null
+                && (parent.zero == null || parent.one == null)) {
+            replace(grandparent, parent, parent.zero != null ? parent.zero : parent.one);
+        }
+        return removed;
+    }
+
+    /**
+     * Finds the value of the longest prefix that contains {@code address}.
+     *
+     * @param address the address to look up.
+     * @return the value of the longest matching prefix, or null if none matches.
+     */
+    V lookup(int address) {
+        return lookup(address, null);
+    }
+
+    /**
+     * Finds the value of the longest prefix that contains {@code address}, only
+     * considering values accepted by {@code usable}.
+     *
+     * @param address the address to look up.
+     * @param usable  decides whether a value may be returned. Null accepts all values.
+     * @return the value of the longest matching prefix, or null if none matches.
+     */
+    V lookup(int address, Predicate<V> usable) {
+        V best = null;
+        Node<V> node = root;
+        while (node != null && (address & mask(node.length)) == node.prefix) {
+            if (node.value != null && (usable == null || usable.test(node.value))) {
+                best = node.value;
+            }
+            if (node.length == 32) {
+                break;
+            }
+            node = node.child(bit(address, node.length));
+        }
+        return best;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Node<V> find(int prefix, int length) {
+        Node<V> node = root;
+        while (node != null && node.length <= length
+                && (prefix & mask(node.length)) == node.prefix) {
+            if (node.length == length) {
+                return node;
+            }
+            node = node.child(bit(prefix, node.length));
+        }
+        return null;
+    }
+
+    private void replace(Node<V> parent, Node<V> node, Node<V> replacement) {
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.zero == node) {
+            parent.zero = replacement;
+        } else {
+            parent.one = replacement;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Encodes and decodes the RIP v2 messages (RFC 2453) that Rovers multicast to each
+ * other.
+ * <p>
+ * A message holds at most {@code MAX_ENTRIES} routes, so it is never larger than
+ * {@code MAX_MESSAGE_SIZE} bytes. A table with more routes is advertised in as many
+ * messages as it takes. Every message is encoded into the same buffer, which is
+ * handed to a MessageSender before the next message is encoded, so advertising a
+ * table allocates nothing per route.
+ * <p>
+ * A route with several equal-cost next hops is advertised as one entry per next hop,
+ * all in the same message, so that every Rover the route goes through can apply
+ * split horizon to it, not only the first next hop.
+ * <p>
+ * Rovers modify the RIP header slightly: the second byte of the unused field carries
+ * the rover ID of the sender.
+ *
+ * @author Soham Dongargaonkar
+ */
+class RIPCodec {
+    static final int HEADER_SIZE = 4;
+    static final int ENTRY_SIZE = 20;
+    static final int MAX_ENTRIES = 25;
+    static final int MAX_MESSAGE_SIZE = HEADER_SIZE + MAX_ENTRIES * ENTRY_SIZE; //504
+
+    private final static byte COMMAND = 1;
+    private final static byte VERSION = 2;
+    private final static short ADDRESS_FAMILY = 2;
+    private final static short ROUTE_TAG = 0x0101;  //placeholder 1 in both bytes
+
+    private final byte[] message = new byte[MAX_MESSAGE_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(message);
+
+    /**
+     * Sends a single encoded message.
+     */
+    interface MessageSender {
+        /**
+         * @param message the message, from index 0. It is overwritten once this
+         *                method returns.
+         * @param length  the length of the message.
+         * @throws IOException if the message cannot be sent.
+         */
+        void send(byte[] message, int length) throws IOException;
+    }
+
+    /**
+     * Encodes a table into as many messages as it takes, and sends each of them. At
+     * least one message is always sent, even for an empty table, so that neighbours
+     * keep hearing from this Rover.
+     *
+     * @param roverID the ID of the Rover that sends the messages.
+     * @param entries the routes to advertise.
+     * @param sender  sends each message.
+     * @throws IOException see {@code MessageSender.send()}
+     */
+    synchronized void encode(int roverID, Iterable<RoutingTableEntry> entries,
+                             MessageSender sender) throws IOException {
+        int count = 0;
+        startMessage(roverID);
+        for (RoutingTableEntry r : entries) {
+            if (count > 0 && count + r.nextHops.length > MAX_ENTRIES) {
+                sender.send(message, buffer.position());
+                startMessage(roverID);
+                count = 0;
+            }
+            for (int nextHop : r.nextHops) {
+                if (count == MAX_ENTRIES) {     //only with more next hops than that
+                    sender.send(message, buffer.position());
+                    startMessage(roverID);
+                    count = 0;
+                }
+                buffer.putShort(ADDRESS_FAMILY);
+                buffer.putShort(ROUTE_TAG);
+                buffer.putInt(r.address);       //IP Address
+                buffer.putInt(r.mask);          //Subnet Mask
+                buffer.putInt(nextHop);         //Next Hop
+                buffer.putInt(r.cost);          //Metric
+                count++;
+            }
+        }
+        sender.send(message, buffer.position());
+    }
+
+    private void startMessage(int roverID) {
+        buffer.clear();
+        buffer.put(COMMAND);
+        buffer.put(VERSION);
+        buffer.put((byte) 0);
+        buffer.put((byte) roverID);
+    }
+
+    /**
+     * Decodes a received message. Entries with an impossible subnet mask are skipped.
+     *
+     * @param message the received message, from index 0.
+     * @param length  the length of the message.
+     * @return the routes in the message, and the ID of the Rover that sent it. Null
+     * if the message is too short to have a header, or is not a RIP message (for
+     * instance a message of a LinkStateRouter).
+     */
+    static RIPEntryHolder decode(byte[] message, int length) {
+        if (length < HEADER_SIZE || message[0] != COMMAND) {
+            return null;
+        }
+        ArrayList<RoutingTableEntry> entries = new ArrayList<>(
+                Math.max(0, (length - HEADER_SIZE) / ENTRY_SIZE));
+        ByteBuffer buffer = ByteBuffer.wrap(message, 0, length);
+        buffer.position(3); //Ignore command, version and the first zero
+        int roverID = buffer.get() & 0xFF;
+        while (buffer.remaining() >= ENTRY_SIZE) {
+            buffer.getShort();      //Address Family Identifier
+            buffer.getShort();      //Route Tag
+            int ipAddress = buffer.getInt();
+            byte subnetMask = (byte) buffer.getInt();
+            int nextHop = buffer.getInt();
+            byte cost = (byte) buffer.getInt();
+
+            if (subnetMask < 0 || subnetMask > 32) {
+                continue;
+            }
+            entries.add(new RoutingTableEntry(ipAddress, subnetMask, nextHop, cost));
+        }
+        return new RIPEntryHolder(entries, roverID);
+    }
+}
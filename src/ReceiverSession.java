@@ -0,0 +1,317 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Receives a single file from another Rover, and writes it to an output file.
+ * <p>
+ * The file is written through an AsyncFileWriter, so the ACK for a packet is sent as
+ * soon as the packet is queued for writing, without waiting for the disk.
+ * <p>
+ * Packets are placed in a reorder buffer, keyed by their number, and everything that
+ * is contiguous with {@code ackNumber} is written out in order. Every SEQ or FIN is
+ * answered with an ACK for the next packet that is expected, along with SACK blocks
+ * for everything received beyond it, or with a FIN_ACK once the whole file has been
+ * written.
+ * <p>
+ * Packets flagged with {@code RipcomPacket.FLAG_DEFLATE} are inflated just before
+ * they are written out. Everything else, including rebuilding packets from REPAIRs,
+ * works on the contents as they were sent.
+ * <p>
+ * REPAIRs (see XorParity) are kept until every packet of their group has arrived.
+ * Whenever all but one packet of a group are in, the missing one is rebuilt from the
+ * REPAIR and handled as if it had arrived. To have the contents of packets that were
+ * already written out at hand, the last {@code MAX_FEC_GROUP} of them are kept.
+ * <p>
+ * The session ends once no packet has arrived for {@code IDLE_TIMEOUT} ms. Until
+ * then, a finished session keeps answering retransmitted FINs, in case its FIN_ACK
+ * was lost. If the file cannot be written, the session stops answering altogether,
+ * so that neither end reports the transfer as complete, and ends the same way.
+ *
+ * @author Soham Dongargaonkar
+ */
+class ReceiverSession extends Session {
+    private final static int REORDER_LIMIT = 1024; //max packets buffered ahead of ackNumber
+    private final static int MAX_SACK_BLOCKS = 32;
+    private final static int IDLE_TIMEOUT = 120000; //longer than the largest RTO
+    private final static int MAX_FEC_GROUP = 64;    //most packets covered by a REPAIR
+
+    private final String outputName;
+    private final AsyncFileWriter fileWriter;
+    private final TreeMap<Integer, RipcomPacket> reorderBuffer = new TreeMap<>();
+    private final TreeMap<Integer, byte[]> repairs = new TreeMap<>(); //by first number
+    private final RipcomPacket[] written = new RipcomPacket[MAX_FEC_GROUP]; //by number
+    private final Inflater inflater = new Inflater();
+    //One byte more than a SEQ can hold, to tell a stream that inflates to too much.
+    private final byte[] inflateBuffer = new byte[SenderSession.MAX_CONTENTS + 1];
+    private AsyncFileWriter.Sink sink;
+    private int ackNumber = 0;
+    private boolean receiveFinished = false;
+    private boolean writeFailed = false;
+
+    /**
+     * @param localAddress  the address that the file is sent to.
+     * @param sourceAddress the address of the sending Rover.
+     * @param sessionId     the session ID of the transfer.
+     * @param outputName    the name of the file to write to. It is only created once
+     *                      the first packet can be written.
+     * @param fileWriter    writes the file.
+     * @param packetSender  sends the ACKs of this session.
+     * @param onClose       called with this session once it has ended.
+     * @param verbose       whether to print every packet that is handled.
+     */
+    ReceiverSession(int localAddress, int sourceAddress, int sessionId, String outputName,
+                    AsyncFileWriter fileWriter, PacketSender packetSender,
+                    Consumer<Session> onClose, boolean verbose) {
+        super(localAddress, sourceAddress, sessionId, packetSender, onClose, verbose);
+        this.outputName = outputName;
+        this.fileWriter = fileWriter;
+    }
+
+    @Override
+    void runSession() throws IOException, InterruptedException {
+        try {
+            RipcomPacket ripcomPacket;
+            while ((ripcomPacket = receive(IDLE_TIMEOUT)) != null) {
+                receiveDataPacket(ripcomPacket);
+            }
+            if (!receiveFinished && sink != null) {
+                System.out.println("Gave up on the transfer from " +
+                        IPAddresses.toString(remoteAddress) + ", " + outputName +
+                        " is incomplete.");
+            }
+        } finally {
+            inflater.end();
+            if (!receiveFinished && sink != null && !writeFailed) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a SEQ, FIN or REPAIR of this transfer. Packets that were already written
+     * out are simply acknowledged again, since receiving them means the previous ACK
+     * (or FIN_ACK) was lost. A REPAIR is only answered if it rebuilt a packet.
+     *
+     * @param ripcomPacket a SEQ, FIN or REPAIR packet from the sending Rover.
+     * @throws IOException          if the ACK cannot be sent, or the contents of a
+     *                              packet cannot be inflated.
+     * @throws InterruptedException if interrupted while waiting for the AsyncFileWriter.
+     */
+    private void receiveDataPacket(RipcomPacket ripcomPacket)
+            throws IOException, InterruptedException {
+        if (writeFailed) {
+            return;
+        }
+        int number = ripcomPacket.getNumber();
+        if (verbose) {
+            System.out.println("Received " + ripcomPacket.getPacketType() + " " + number);
+        }
+        if (ripcomPacket.getPacketType() == Type.REPAIR) {
+            if (!acceptRepair(ripcomPacket)) {
+                return;
+            }
+        } else if (number < ackNumber) {
+            if (verbose) {
+                System.out.println("Received a duplicate packet: " + number);
+                System.out.println("Sending ACK again for packet: " + ackNumber);
+            }
+        } else if (number < ackNumber + REORDER_LIMIT) {
+            reorderBuffer.putIfAbsent(number, ripcomPacket);
+            Map.Entry<Integer, byte[]> repair = repairs.floorEntry(number);
+            if (repair != null) {
+                repair(repair.getKey());
+            }
+        }
+
+        RipcomPacket nextPacket;
+        while (!receiveFinished && (nextPacket = reorderBuffer.remove(ackNumber)) != null) {
+            if (sink == null) {
+                sink = fileWriter.open(outputName);
+            }
+            byte[] contents = getFileContents(nextPacket);
+            try {
+                sink.write(contents);
+                if (nextPacket.getPacketType() == Type.FIN) {
+                    sink.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("Could not write " + outputName + ", giving up on " +
+                        "the transfer from " + IPAddresses.toString(remoteAddress));
+                writeFailed = true;
+                return;
+            }
+            written[ackNumber % written.length] = nextPacket;
+            ackNumber++;
+            if (nextPacket.getPacketType() == Type.FIN) {
+                receiveFinished = true;
+                reorderBuffer.clear();
+                repairs.clear();
+                System.out.println("Received message successfully. See file " +
+                        outputName + " for the final output.");
+            }
+        }
+
+        RipcomPacket ackPacket;
+        if (receiveFinished) {
+            if (verbose) {
+                System.out.println("Sending FIN_ACK packet, ackNumber is " + ackNumber);
+            }
+            ackPacket = new RipcomPacket(remoteAddress, localAddress, sessionId,
+                    Type.FIN_ACK, ackNumber, 0, new byte[0]);
+        } else {
+            byte[] sackBlocks = getSackBlocks();
+            ackPacket = new RipcomPacket(remoteAddress, localAddress, sessionId,
+                    Type.ACK, ackNumber, sackBlocks.length, sackBlocks);
+        }
+        send(ackPacket);
+    }
+
+    /**
+     * Keeps a REPAIR until its group is complete, and tries to rebuild a packet with
+     * it right away.
+     *
+     * @param repairPacket a REPAIR packet from the sending Rover.
+     * @return true if a packet was rebuilt.
+     */
+    private boolean acceptRepair(RipcomPacket repairPacket) {
+        byte[] contents = repairPacket.getContents();
+        if (receiveFinished || contents.length < XorParity.REPAIR_HEADER_SIZE) {
+            return false;
+        }
+        int count = ByteBuffer.wrap(contents).getInt();
+        int first = repairPacket.getNumber();
+        if (count < 1 || count > MAX_FEC_GROUP || first + count <= ackNumber) {
+            return false;
+        }
+        //Groups that were completed long ago are never looked at again.
+        while (!repairs.isEmpty() && repairs.firstKey() + MAX_FEC_GROUP <= ackNumber) {
+            repairs.pollFirstEntry();
+        }
+        repairs.put(first, contents);
+        return repair(first);
+    }
+
+    /**
+     * Rebuilds the missing packet of a group if every other packet of it has
+     * arrived, and places it in {@code reorderBuffer}. The REPAIR is dropped once the
+     * group is complete, or if a packet of the group is longer than its parity (so the
+     * REPAIR cannot belong to that group).
+     *
+     * @param first the number of the first packet covered by a REPAIR.
+     * @return true if a packet was rebuilt.
+     */
+    private boolean repair(int first) {
+        byte[] repairContents = repairs.get(first);
+        int count = ByteBuffer.wrap(repairContents).getInt();
+        XorParity parity = XorParity.fromRepair(repairContents);
+        int missing = -1;
+        for (int number = first; number < first + count; number++) {
+            RipcomPacket ripcomPacket = number < ackNumber
+                    ? written[number % written.length] : reorderBuffer.get(number);
+            if (ripcomPacket != null) {
+                ByteBuffer packetContents = ripcomPacket.getContentsBuffer();
+                if (!parity.fits(packetContents)) {
+                    repairs.remove(first);
+                    return false;
+                }
+                parity.add(packetContents, ripcomPacket.getFlags());
+            } else if (missing == -1) {
+                missing = number;
+            } else {
+                return false;       //more than one is missing, wait for more
+            }
+        }
+        repairs.remove(first);
+        byte[] contents = missing != -1 ? parity.getMissing() : null;
+        if (contents == null || missing >= ackNumber + REORDER_LIMIT) {
+            return false;
+        }
+        if (verbose) {
+            System.out.println("Rebuilt packet " + missing + " from a REPAIR");
+        }
+        reorderBuffer.put(missing, new RipcomPacket(remoteAddress, localAddress,
+                sessionId, Type.SEQ, parity.getMissingFlags(), missing,
+                ByteBuffer.wrap(contents)));
+        return true;
+    }
+
+    /**
+     * @param ripcomPacket a SEQ or FIN that is about to be written out.
+     * @return the part of the file that the packet holds; its contents, inflated if
+     * they were compressed.
+     * @throws IOException if the contents cannot be inflated, or inflate to more than
+     *                     a SEQ can hold.
+     */
+    private byte[] getFileContents(RipcomPacket ripcomPacket) throws IOException {
+        if ((ripcomPacket.getFlags() & RipcomPacket.FLAG_DEFLATE) == 0) {
+            return ripcomPacket.getContents();
+        }
+        inflater.reset();
+        inflater.setInput(ripcomPacket.getContents());
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == inflateBuffer.length) {
+                    throw new IOException("Packet " + ripcomPacket.getNumber() + " from " +
+                            IPAddresses.toString(remoteAddress) + " inflates to more " +
+                            "than the " + SenderSession.MAX_CONTENTS + " bytes a SEQ holds");
+                }
+                int inflated = inflater.inflate(inflateBuffer, size,
+                        inflateBuffer.length - size);
+                if (inflated == 0
+                        && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("truncated");
+                }
+                size += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Could not inflate packet " + ripcomPacket.getNumber() +
+                    " from " + IPAddresses.toString(remoteAddress), e);
+        }
+        return Arrays.copyOf(inflateBuffer, size);
+    }
+
+    /**
+     * Describes the contents of {@code reorderBuffer} as SACK blocks {@see RFC 2018}.
+     * Each block is a pair of ints; the first packet number of a contiguous run that
+     * was received, and the number just after the end of that run. At most {@code
+     * MAX_SACK_BLOCKS} blocks are reported, lowest numbers first.
+     *
+     * @return the SACK blocks, ready to be used as the contents of an ACK.
+     */
+    private byte[] getSackBlocks() {
+        ByteBuffer sackBlocks = ByteBuffer.allocate(MAX_SACK_BLOCKS * 8);
+        int start = -1;
+        int end = -1;
+        for (int number : reorderBuffer.keySet()) {
+            if (number != end) {
+                if (start != -1) {
+                    sackBlocks.putInt(start).putInt(end);
+                    if (!sackBlocks.hasRemaining()) {
+                        start = -1;
+                        break;
+                    }
+                }
+                start = number;
+            }
+            end = number + 1;
+        }
+        if (start != -1) {
+            sackBlocks.putInt(start).putInt(end);
+        }
+        byte[] contents = new byte[sackBlocks.position()];
+        System.arraycopy(sackBlocks.array(), 0, contents, 0, contents.length);
+        return contents;
+    }
+}
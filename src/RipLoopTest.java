@@ -0,0 +1,216 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Checks that RIP does not build a routing loop around a route with equal-cost next
+ * hops, by running three Rovers in this process.
+ * <p>
+ * Rovers A and B both reach the prefix P through an origin O, which is not a Rover
+ * but only a source of advertisements. Rover C hears A and B, so it reaches P through
+ * both of them at the same cost, with B as its second next hop:
+ * <pre>
+ *       A
+ *     /   \
+ *   O       C
+ *     \   /
+ *       B
+ * </pre>
+ * Then B loses its path to O, and hears C's next periodic update before C hears that
+ * B lost it. C still lists B as a next hop for P, so B must not learn P back through
+ * C, or packets for P would loop between B and C. Finally, a few rounds of updates
+ * are exchanged, and no Rover may reach P along a path that visits a Rover twice.
+ * <p>
+ * RIP messages are not multicast but queued, and handed to the neighbours of their
+ * sender in the order the test chooses. Usage: {@code java RipLoopTest}. Prints PASS,
+ * or exits with status 1 after printing what failed.
+ *
+ * @author Soham Dongargaonkar
+ */
+class RipLoopTest {
+    private final static int INFINITY = 16;
+    private final static int ROUNDS = 5;
+    private final static int ORIGIN = IPAddresses.toInt("10.9.0.1");
+    private final static int PREFIX = IPAddresses.toInt("10.5.0.0");
+    private final static byte PREFIX_MASK = 16;
+
+    private final static ArrayDeque<Message> queue = new ArrayDeque<>();
+    private final static HashMap<Rover, List<Rover>> neighbours = new HashMap<>();
+    private final static HashMap<Integer, Rover> byAddress = new HashMap<>();
+
+    /**
+     * A RIP message that a Rover sent, waiting to be delivered.
+     */
+    private static class Message {
+        private final Rover sender;
+        private final byte[] contents;
+
+        private Message(Rover sender, byte[] contents) {
+            this.sender = sender;
+            this.contents = contents;
+        }
+    }
+
+    public static void main(String[] args) throws UnknownHostException {
+        Rover a = newRover("10.9.0.2", 2);
+        Rover b = newRover("10.9.0.3", 3);
+        Rover c = newRover("10.9.0.4", 4);
+        neighbours.put(a, Arrays.asList(c));
+        neighbours.put(b, Arrays.asList(c));
+        neighbours.put(c, Arrays.asList(a, b));
+
+        //Rovers print their table on every change; only the result is wanted.
+        PrintStream results = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        ArrayList<String> failures = new ArrayList<>();
+
+        advertiseFromOrigin(a, 0);
+        advertiseFromOrigin(b, 0);
+        for (int round = 0; round < ROUNDS; round++) {
+            exchange(a, b, c);
+        }
+        RoutingTableEntry route = routeOf(c);
+        if (route == null || route.cost != 2 || route.nextHops.length != 2
+                || route.nextHops[1] != address(b)) {
+            failures.add("C should reach P at cost 2 through A, then B, but has " +
+                    describe(route));
+        }
+
+        advertiseFromOrigin(b, INFINITY);
+        queue.clear();      //B's triggered update has not reached C yet
+        c.sendRIPMessage();
+        deliverAll();
+        route = routeOf(b);
+        if (route != null && route.cost < INFINITY) {
+            failures.add("B learnt P back through C, which still uses B: " +
+                    describe(route));
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            exchange(a, b, c);
+        }
+        for (Rover rover : Arrays.asList(a, b, c)) {
+            String loop = findLoop(rover, new ArrayList<>());
+            if (loop != null) {
+                failures.add("Loop towards P: " + loop);
+            }
+        }
+
+        if (failures.isEmpty()) {
+            results.println("PASS");
+            System.exit(0);
+        }
+        for (String failure : failures) {
+            results.println("FAIL: " + failure);
+        }
+        System.exit(1);
+    }
+
+    private static Rover newRover(String ip, int roverID) {
+        Rover rover = new Rover(ip);
+        rover.roverID = roverID;
+        rover.ripSender = (message, length) ->
+                queue.add(new Message(rover, Arrays.copyOf(message, length)));
+        byAddress.put(IPAddresses.toInt(ip), rover);
+        return rover;
+    }
+
+    private static int address(Rover rover) {
+        for (Integer address : byAddress.keySet()) {
+            if (byAddress.get(address) == rover) {
+                return address;
+            }
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Hands {@code rover} an advertisement of P from the origin.
+     */
+    private static void advertiseFromOrigin(Rover rover, int cost)
+            throws UnknownHostException {
+        ArrayList<RoutingTableEntry> entries = new ArrayList<>();
+        entries.add(new RoutingTableEntry(PREFIX, PREFIX_MASK, ORIGIN, (byte) cost));
+        rover.updateRoutingTable(entries, ORIGIN);
+    }
+
+    /**
+     * Every Rover sends its whole table, in turn, and every message (including the
+     * triggered updates that follow) is delivered.
+     */
+    private static void exchange(Rover... rovers) throws UnknownHostException {
+        for (Rover rover : rovers) {
+            rover.sendRIPMessage();
+            deliverAll();
+        }
+    }
+
+    private static void deliverAll() throws UnknownHostException {
+        while (!queue.isEmpty()) {
+            Message message = queue.poll();
+            RIPEntryHolder holder = RIPCodec.decode(message.contents,
+                    message.contents.length);
+            for (Rover neighbour : neighbours.get(message.sender)) {
+                neighbour.updateRoutingTable(new ArrayList<>(holder.getArrayList()),
+                        address(message.sender));
+            }
+        }
+    }
+
+    /**
+     * @return the route of {@code rover} to P, or null if it has none.
+     */
+    private static RoutingTableEntry routeOf(Rover rover) {
+        return rover.getRoutes().get(PREFIX, PREFIX_MASK);
+    }
+
+    /**
+     * Follows every reachable next hop towards P, from {@code rover}.
+     *
+     * @param path the Rovers visited before {@code rover}.
+     * @return a description of a path that visits a Rover twice, or null if there is
+     * none.
+     */
+    private static String findLoop(Rover rover, List<Rover> path) {
+        if (path.contains(rover)) {
+            path.add(rover);
+            StringBuilder loop = new StringBuilder();
+            for (Rover visited : path) {
+                loop.append(loop.length() > 0 ? " -> " : "")
+                        .append(IPAddresses.toString(address(visited)));
+            }
+            return loop.toString();
+        }
+        RoutingTableEntry route = routeOf(rover);
+        if (route == null || route.cost >= INFINITY) {
+            return null;
+        }
+        path.add(rover);
+        for (int nextHop : route.nextHops) {
+            Rover next = byAddress.get(nextHop);
+            if (next != null) {
+                String loop = findLoop(next, new ArrayList<>(path));
+                if (loop != null) {
+                    return loop;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String describe(RoutingTableEntry route) {
+        if (route == null) {
+            return "no route";
+        }
+        return "cost " + route.cost + " through " + route.getNextHopIPs();
+    }
+}
@@ -1,17 +1,18 @@
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 /*
  * RipcomPacket.java
  *
  * Version:
- *   2.0
+ *   2.4
  *
  * Revisions:
  *   1.1: Added enum as packetTypes instead of Strings
  *   1.2: Added length
  *   2.0: Changed content from String to byte[] (yay for supporting all file types!)
+ *   2.1: Addresses are kept as ints, and packets are encoded straight into a ByteBuffer
+ *   2.2: Added the session ID, so that a Rover can run many transfers at once
+ *   2.3: Contents can be a slice of another buffer, such as a memory-mapped file
+ *   2.4: Added flags, to mark contents that were compressed
  *
  */
 
@@ -25,102 +26,154 @@ import java.util.ArrayList;
  * @author Soham Dongargaonkar [sd4324] on 19/4/19
  */
 class RipcomPacket {
+    static final int HEADER_SIZE = RipcomPacketView.CONTENTS_OFFSET;
+    static final int IP_UDP_OVERHEAD = 28;  //IPv4 and UDP headers, without options
+    static final byte FLAG_DEFLATE = 1;     //the contents are a zlib (Deflate) stream
+
+    private int destinationAddress; //bytes 0 - 3
+    private int sourceAddress;      //bytes 4 - 7
+    private int sessionId;          //bytes 8 - 11
+    private Type packetType;        //bytes 12
+    private byte flags;             //bytes 13
+    private int number;             //bytes 14 - 17
+    private int length;             //bytes 18 - 21
+    private ByteBuffer contents;    //bytes 22 - ..
+
+    RipcomPacket(String destinationIP, String sourceIP, int sessionId, Type packetType,
+                 int number, int length, byte[] contents) {
+        this(IPAddresses.toInt(destinationIP), IPAddresses.toInt(sourceIP), sessionId,
+                packetType, number, length, contents);
+    }
+
+    RipcomPacket(int destinationAddress, int sourceAddress, int sessionId,
+                 Type packetType, int number, int length, byte[] contents) {
+        this(destinationAddress, sourceAddress, sessionId, packetType, (byte) 0, number,
+                ByteBuffer.wrap(contents, 0, length));
+    }
 
-    private String destinationIP;   //bytes 0 - 3
-    private String sourceIP;        //bytes 4 - 7
-    private Type packetType;        //bytes 8
-    private int number;             //bytes 9 - 12
-    private int length;             //bytes 13 - 16
-    private byte[] contents;        //bytes 17 - ..
-
-    RipcomPacket(String destinationIP, String sourceIP, Type packetType, int number,
-                 int length, byte[] contents) {
-        this.destinationIP = destinationIP;
-        this.sourceIP = sourceIP;
+    /**
+     * Creates a packet whose contents are the bytes between the position and the
+     * limit of {@code contents}. The bytes are not copied until the packet is
+     * encoded, so {@code contents} must not change while the packet is in use.
+     */
+    RipcomPacket(int destinationAddress, int sourceAddress, int sessionId,
+                 Type packetType, byte flags, int number, ByteBuffer contents) {
+        this.destinationAddress = destinationAddress;
+        this.sourceAddress = sourceAddress;
+        this.sessionId = sessionId;
         this.packetType = packetType;
+        this.flags = flags;
         this.number = number;
-        this.length = length;
+        this.length = contents.remaining();
         this.contents = contents;
     }
 
-
     String getDestinationIP() {
-        return destinationIP;
+        return IPAddresses.toString(destinationAddress);
     }
 
     String getSourceIP() {
-        return sourceIP;
+        return IPAddresses.toString(sourceAddress);
+    }
+
+    int getDestinationAddress() {
+        return destinationAddress;
+    }
+
+    int getSourceAddress() {
+        return sourceAddress;
+    }
+
+    int getSessionId() {
+        return sessionId;
     }
 
     Type getPacketType() {
         return packetType;
     }
 
+    byte getFlags() {
+        return flags;
+    }
+
     int getNumber() {
         return number;
     }
 
+    /**
+     * @return the contents of this packet. The array is only copied if the contents
+     * are a slice of a larger buffer.
+     */
     byte[] getContents() {
-        return contents;
+        if (contents.hasArray() && contents.arrayOffset() + contents.position() == 0
+                && contents.remaining() == contents.array().length) {
+            return contents.array();
+        }
+        byte[] bytes = new byte[contents.remaining()];
+        contents.duplicate().get(bytes);
+        return bytes;
     }
 
-
     /**
-     * Constructs a Ripcom packet and returns it packed and ready to be sent, in a byte
-     * array.
-     *
-     * @throws UnknownHostException if the destination IP form is incorrect.
+     * @return the contents of this packet between the position and limit of a new
+     * buffer, without copying them. They must not be changed.
      */
-    byte[] getBytes() throws UnknownHostException {
-        ArrayList<Byte> arrayList = new ArrayList<>();
-        byte[] ipAddress = InetAddress.getByName(destinationIP).getAddress();
-        for (byte b : ipAddress) {
-            arrayList.add(b);                           //Destination IP
-        }
-
-        ipAddress = InetAddress.getByName(sourceIP).getAddress();
-        for (byte b : ipAddress) {
-            arrayList.add(b);                           //Source IP
-        }
-
-        if (packetType == Type.SEQ) {
-            arrayList.add((byte) 1);
-        } else if (packetType == Type.ACK) {            //Type
-            arrayList.add((byte) 2);
-        } else if (packetType == Type.FIN_ACK) {
-            arrayList.add((byte) 3);
-        } else {
-            arrayList.add((byte) 0);
-        }
+    ByteBuffer getContentsBuffer() {
+        return contents.duplicate();
+    }
 
-        byte[] nums = ByteBuffer.allocate(4).putInt(number).array();
-        for (byte n : nums) {                           //Number
-            arrayList.add(n);
-        }
+    /**
+     * @param mtu the MTU of a path.
+     * @return the most contents a packet can carry without being fragmented on it.
+     */
+    static int maxContents(int mtu) {
+        return mtu - IP_UDP_OVERHEAD - HEADER_SIZE;
+    }
 
-        byte[] lengthBytes = ByteBuffer.allocate(4).putInt(length).array();
-        for (byte l : lengthBytes) {
-            arrayList.add(l);                           //Length
-        }
+    /**
+     * @return the number of bytes {@code encodeTo()} will write for this packet.
+     */
+    int getEncodedLength() {
+        return HEADER_SIZE + contents.remaining();
+    }
 
-        byte[] contentsBytes = contents;
-        for (byte b : contentsBytes) {
-            arrayList.add(b);                           //Message
-        }
+    /**
+     * Writes this packet, ready to be sent, into {@code buffer} starting at its
+     * current position. Nothing is allocated, so a single buffer can be reused for
+     * every packet that is sent.
+     *
+     * @param buffer the buffer to write to. Must have at least {@code
+     *               getEncodedLength()} bytes remaining.
+     */
+    void encodeTo(ByteBuffer buffer) {
+        buffer.putInt(destinationAddress);      //Destination IP
+        buffer.putInt(sourceAddress);           //Source IP
+        buffer.putInt(sessionId);               //Session ID
+        buffer.put(packetType.getCode());       //Type
+        buffer.put(flags);                      //Flags
+        buffer.putInt(number);                  //Number
+        buffer.putInt(length);                  //Length
+        buffer.put(contents.duplicate());       //Message
+    }
 
-        byte[] buffer = new byte[arrayList.size()];
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = arrayList.get(i);
-        }
-        return buffer;
+    /**
+     * Constructs a Ripcom packet and returns it packed and ready to be sent, in a byte
+     * array. Prefer {@code encodeTo()} with a reused buffer where possible.
+     */
+    byte[] getBytes() {
+        byte[] bytes = new byte[getEncodedLength()];
+        encodeTo(ByteBuffer.wrap(bytes));
+        return bytes;
     }
 
     @Override
     public String toString() {
         return "========== Ripcom Packet==========" + "\n" +
-                "Destination IP: " + destinationIP + "\n" +
-                "Source IP: " + sourceIP + "\n" +
+                "Destination IP: " + getDestinationIP() + "\n" +
+                "Source IP: " + getSourceIP() + "\n" +
+                "Session ID: " + Integer.toUnsignedString(sessionId) + "\n" +
                 "Type: " + packetType + "\n" +
+                "Flags: " + flags + "\n" +
                 "Number: " + number + "\n" +
                 "Length: " + length + "\n" +
                 "Contents: <NOT DISPLAYED>\n";
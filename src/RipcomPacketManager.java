@@ -2,23 +2,20 @@ import java.nio.ByteBuffer;
 
 /**
  * For now, the purpose of this class is only to build a new RipcomPacket from a byte
- * array.
+ * array, or from a RipcomPacketView.
  * <p>
  * The function {@code getRipcomPacket(byte[] packet)} should not be in RipcomPacket as
  * a new RipcomPacket MUST be instantiated with a constructor containing all the
  * different values. This is  to prevent accidental calls to {@code getBytes()} on a
  * RipcomPacket that was created with a default constructor.
+ * <p>
+ * Packets that are only being forwarded should not be built at all; see
+ * RipcomPacketView.
  *
  * @author Soham Dongargaonkar [sd4324] on 19/4/19
  */
 
 class RipcomPacketManager {
-    private static final int DESTINATION_IP_OFFSET = 0;
-    private static final int SOURCE_IP_OFFSET = 4;
-    private static final int PACKET_TYPE_OFFSET = 8;
-    private static final int NUMBER_OFFSET = 9;
-    private static final int LENGTH_OFFSET = 13;
-    private static final int CONTENTS_OFFSET = 17;
 
     /**
      * Given a byte representation of a ripcom packet, creates a new instance of
@@ -28,59 +25,23 @@ class RipcomPacketManager {
      * @return instance of RipcomPacket
      */
     RipcomPacket getRipcomPacket(byte[] packet) {
-        StringBuilder destinationIP = getIP(DESTINATION_IP_OFFSET, packet);
-
-        StringBuilder sourceIP = getIP(SOURCE_IP_OFFSET, packet);
-
-        Type packetType;
-        int type = packet[PACKET_TYPE_OFFSET];
-        switch (type) {
-            case 1:
-                packetType = Type.SEQ;
-                break;
-            case 2:
-                packetType = Type.ACK;
-                break;
-            case 3:
-                packetType = Type.FIN_ACK;
-                break;
-            default:
-                packetType = Type.FIN;
-        }
-
-        byte[] numsArray = new byte[4];
-        System.arraycopy(packet, NUMBER_OFFSET, numsArray, 0, 4);
-        int number = ByteBuffer.wrap(numsArray).getInt();
-
-        byte[] lengthArray = new byte[4];
-        System.arraycopy(packet, LENGTH_OFFSET, lengthArray, 0, 4);
-        int length = ByteBuffer.wrap(lengthArray).getInt();
-
-        byte[] contents = new byte[length];
-        System.arraycopy(packet, CONTENTS_OFFSET, contents, 0, length);
-
-        return new RipcomPacket(destinationIP.toString(), sourceIP.toString(), packetType,
-                number, length, contents);
+        return getRipcomPacket(new RipcomPacketView().wrap(ByteBuffer.wrap(packet)));
     }
 
     /**
-     * Used for getting a String IP address from the destination and source offsets (to
-     * avoid duplicate code!)
+     * Creates a new instance of RipcomPacket from a view of an encoded packet. This is
+     * the only point at which the contents are copied out of the receive buffer.
      *
-     * @param offset either the source IP or the destination IP offset.
-     * @param packet representation of a RipcomPacket in bytes
-     * @return the corresponding IP address (depending on {@code offset} in
-     * StringBuilder form.
+     * @param view a view of the encoded RipcomPacket
+     * @return instance of RipcomPacket
      */
-    private StringBuilder getIP(int offset, byte[] packet) {
-        StringBuilder ip = new StringBuilder();
-        for (int i = offset; i < offset + 4; i++) {
-            int ipPart = Byte.toUnsignedInt(packet[i]);
-            ip.append(ipPart);
-            if (i != offset + 3) {
-                ip.append('.');
-            }
-        }
-        return ip;
+    RipcomPacket getRipcomPacket(RipcomPacketView view) {
+        int length = view.getLength();
+        byte[] contents = new byte[length];
+        view.getContents().get(contents);
+
+        return new RipcomPacket(view.getDestinationAddress(), view.getSourceAddress(),
+                view.getSessionId(), view.getPacketType(), view.getFlags(),
+                view.getNumber(), ByteBuffer.wrap(contents));
     }
-}
\ No newline at end of file
+}
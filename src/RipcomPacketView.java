@@ -0,0 +1,117 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only view of an encoded Ripcom packet sitting in a buffer, usually the
+ * receive buffer of {@code Rover.udpServer()}. Fields are read straight out of the
+ * buffer when asked for, so a Rover can look at the destination of a packet and
+ * forward the very same bytes without ever creating a RipcomPacket or copying the
+ * contents.
+ * <p>
+ * A single instance is meant to be reused for every received datagram by calling
+ * {@code wrap()}. The view is only valid until the underlying buffer is reused.
+ *
+ * @author Soham Dongargaonkar
+ */
+class RipcomPacketView {
+    static final int DESTINATION_IP_OFFSET = 0;
+    static final int SOURCE_IP_OFFSET = 4;
+    static final int SESSION_ID_OFFSET = 8;
+    static final int PACKET_TYPE_OFFSET = 12;
+    static final int FLAGS_OFFSET = 13;
+    static final int NUMBER_OFFSET = 14;
+    static final int LENGTH_OFFSET = 18;
+    static final int CONTENTS_OFFSET = 22;
+
+    private ByteBuffer buffer;
+
+    /**
+     * Points this view at a new packet.
+     *
+     * @param buffer a buffer holding an encoded Ripcom packet between index 0 and
+     *               its limit.
+     * @return this view, for chaining.
+     */
+    RipcomPacketView wrap(ByteBuffer buffer) {
+        this.buffer = buffer;
+        return this;
+    }
+
+    /**
+     * @return true if the buffer holds at least a full header, and the contents
+     * described by the length field.
+     */
+    boolean isValid() {
+        if (buffer.limit() < CONTENTS_OFFSET) {
+            return false;
+        }
+        int length = getLength();
+        return length >= 0 && length <= buffer.limit() - CONTENTS_OFFSET;
+    }
+
+    int getDestinationAddress() {
+        return buffer.getInt(DESTINATION_IP_OFFSET);
+    }
+
+    int getSourceAddress() {
+        return buffer.getInt(SOURCE_IP_OFFSET);
+    }
+
+    int getSessionId() {
+        return buffer.getInt(SESSION_ID_OFFSET);
+    }
+
+    Type getPacketType() {
+        return Type.fromCode(buffer.get(PACKET_TYPE_OFFSET));
+    }
+
+    byte getFlags() {
+        return buffer.get(FLAGS_OFFSET);
+    }
+
+    int getNumber() {
+        return buffer.getInt(NUMBER_OFFSET);
+    }
+
+    int getLength() {
+        return buffer.getInt(LENGTH_OFFSET);
+    }
+
+    /**
+     * @return the number of bytes the packet takes up in the buffer, header included.
+     */
+    int getEncodedLength() {
+        return CONTENTS_OFFSET + getLength();
+    }
+
+    /**
+     * @return the buffer this view is reading from.
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the contents of the packet as a slice of the underlying buffer. No
+     * bytes are copied.
+     *
+     * @return a buffer whose position is 0 and limit is the length of the contents.
+     */
+    ByteBuffer getContents() {
+        ByteBuffer contents = buffer.duplicate();
+        contents.limit(CONTENTS_OFFSET + getLength()).position(CONTENTS_OFFSET);
+        return contents.slice();
+    }
+
+    @Override
+    public String toString() {
+        return "========== Ripcom Packet==========" + "\n" +
+                "Destination IP: " + IPAddresses.toString(getDestinationAddress()) + "\n" +
+                "Source IP: " + IPAddresses.toString(getSourceAddress()) + "\n" +
+                "Session ID: " + Integer.toUnsignedString(getSessionId()) + "\n" +
+                "Type: " + getPacketType() + "\n" +
+                "Flags: " + getFlags() + "\n" +
+                "Number: " + getNumber() + "\n" +
+                "Length: " + getLength() + "\n" +
+                "Contents: <NOT DISPLAYED>\n";
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The routing table of a Rover.
+ * <p>
+ * The table is updated by the RIP listener thread and the timer wheel, and read by
+ * every thread that forwards or sends packets. To keep readers from ever blocking on
+ * or racing with updates, it is split in two (read-copy-update):
+ * <ul>
+ * <li>Writers change a private working copy through the synchronized methods of this
+ * class, and call {@code publish()} once they are done. Writers that read an entry
+ * and then put a new one should hold the lock on this table for the whole update.
+ * <li>Readers call {@code snapshot()}, which returns the last published Snapshot.
+ * A Snapshot never changes, and RoutingTableEntries are immutable, so reading one
+ * needs no locking at all.
+ * </ul>
+ * Entries are indexed by their prefix (int address, see IPAddresses, and mask) in a
+ * PrefixTrie, so both finding the entry for a prefix and finding the longest prefix
+ * that matches a destination take at most 33 steps, however large the table is. The
+ * working copy also maps every next hop to the entries that use it, so that all routes
+ * through a neighbour that timed out can be found without scanning the table.
+ * <p>
+ * Every entry that is put into the table is stamped with the next version number, and
+ * every Snapshot remembers the last version it contains. So the routes that changed
+ * between two snapshots are the entries of the later one whose version is newer than
+ * that of the earlier one.
+ *
+ * @author Soham Dongargaonkar
+ */
+class RoutingTable {
+    private final ArrayList<RoutingTableEntry> entries = new ArrayList<>();
+    private final PrefixTrie<RoutingTableEntry> byPrefix = new PrefixTrie<>();
+    private final IntHashMap<ArrayList<RoutingTableEntry>> byNextHop = new IntHashMap<>();
+    private final AtomicReference<Snapshot> published =
+            new AtomicReference<>(new Snapshot(new ArrayList<>(), 0));
+    private long version = 0;
+
+    /**
+     * An immutable copy of the routing table, as it was when it was published.
+     */
+    static class Snapshot implements Iterable<RoutingTableEntry> {
+        private final List<RoutingTableEntry> entries;
+        private final PrefixTrie<RoutingTableEntry> byPrefix = new PrefixTrie<>();
+        private final long version;
+
+        private Snapshot(ArrayList<RoutingTableEntry> entries, long version) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.version = version;
+            for (RoutingTableEntry entry : entries) {
+                byPrefix.put(entry.address, entry.mask, entry);
+            }
+        }
+
+        /**
+         * @param address the network address of a prefix.
+         * @param mask    the length of the prefix.
+         * @return the entry for exactly this prefix, or null if there is none.
+         */
+        RoutingTableEntry get(int address, byte mask) {
+            return byPrefix.get(address, mask);
+        }
+
+        /**
+         * Finds the entry that packets for {@code destination} should be forwarded
+         * with, i.e. the longest prefix containing {@code destination} whose cost is
+         * less than {@code infinity}.
+         *
+         * @param destination the destination address of a packet.
+         * @param infinity    the cost at which a route is unreachable.
+         * @return the matching entry, or null if there is none.
+         */
+        RoutingTableEntry lookup(int destination, int infinity) {
+            return byPrefix.lookup(destination, entry -> entry.cost < infinity);
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        /**
+         * @return the version of the newest entry in this snapshot.
+         */
+        long getVersion() {
+            return version;
+        }
+
+        /**
+         * @param version the version of an earlier snapshot.
+         * @return every entry that was put into the table after that snapshot, in the
+         * order of the table.
+         */
+        List<RoutingTableEntry> changedSince(long version) {
+            ArrayList<RoutingTableEntry> changed = new ArrayList<>();
+            for (RoutingTableEntry entry : entries) {
+                if (entry.version > version) {
+                    changed.add(entry);
+                }
+            }
+            return changed;
+        }
+
+        /**
+         * Iterates over the entries in the order they were first added.
+         */
+        @Override
+        public Iterator<RoutingTableEntry> iterator() {
+            return entries.iterator();
+        }
+    }
+
+    /**
+     * @return the last published snapshot. Never blocks.
+     */
+    Snapshot snapshot() {
+        return published.get();
+    }
+
+    /**
+     * Makes every change made since the last call visible to {@code snapshot()}.
+     */
+    synchronized void publish() {
+        published.set(new Snapshot(new ArrayList<>(entries), version));
+    }
+
+    /**
+     * @param address the network address of a prefix.
+     * @param mask    the length of the prefix.
+     * @return the entry for exactly this prefix in the working copy, or null if there
+     * is none.
+     */
+    synchronized RoutingTableEntry get(int address, byte mask) {
+        return byPrefix.get(address, mask);
+    }
+
+    /**
+     * Puts an entry into the working copy, replacing any entry for the same prefix.
+     * A replaced entry keeps its place in the order of the table. The entry is stamped
+     * with a new version first.
+     *
+     * @param entry the entry to put.
+     */
+    synchronized void put(RoutingTableEntry entry) {
+        entry = entry.withVersion(++version);
+        RoutingTableEntry previous = byPrefix.put(entry.address, entry.mask, entry);
+        if (previous != null) {
+            entries.set(entries.indexOf(previous), entry);
+            removeFromNextHopIndex(previous);
+        } else {
+            entries.add(entry);
+        }
+        addToNextHopIndex(entry);
+    }
+
+    /**
+     * Removes the entry for a prefix from the working copy, if there is one.
+     *
+     * @param address the network address of the prefix.
+     * @param mask    the length of the prefix.
+     * @return the removed entry, or null if there was none.
+     */
+    synchronized RoutingTableEntry remove(int address, byte mask) {
+        RoutingTableEntry removed = byPrefix.remove(address, mask);
+        if (removed != null) {
+            entries.remove(removed);
+            removeFromNextHopIndex(removed);
+        }
+        return removed;
+    }
+
+    /**
+     * @return a copy of every entry in the working copy, in the order of the table.
+     */
+    synchronized List<RoutingTableEntry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * @param nextHop the (real) address of a neighbour.
+     * @return every entry in the working copy that uses {@code nextHop} as one of its
+     * next hops.
+     */
+    synchronized List<RoutingTableEntry> getEntriesUsing(int nextHop) {
+        ArrayList<RoutingTableEntry> list = byNextHop.get(nextHop);
+        return list != null ? new ArrayList<>(list) : Collections.emptyList();
+    }
+
+    private void addToNextHopIndex(RoutingTableEntry entry) {
+        for (int nextHop : entry.nextHops) {
+            ArrayList<RoutingTableEntry> list = byNextHop.get(nextHop);
+            if (list == null) {
+                list = new ArrayList<>();
+                byNextHop.put(nextHop, list);
+            }
+            list.add(entry);
+        }
+    }
+
+    private void removeFromNextHopIndex(RoutingTableEntry entry) {
+        for (int nextHop : entry.nextHops) {
+            ArrayList<RoutingTableEntry> list = byNextHop.get(nextHop);
+            if (list != null) {
+                list.remove(entry);
+                if (list.isEmpty()) {
+                    byNextHop.remove(nextHop);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+import java.util.Random;
+
+/**
+ * Measures how fast a published RoutingTable finds the longest prefix that matches a
+ * destination, which is done once for every packet that is forwarded.
+ * <p>
+ * For each table size, the table is filled with random prefixes of length 8 to 32
+ * and random costs, some of them unreachable, and then random addresses are looked
+ * up. A few rounds are run so that the JIT has compiled the lookup before the last
+ * round, which is the one to go by.
+ * <p>
+ * Usage: {@code java RoutingTableBenchmark [prefixes...]}. The default is 1000,
+ * 10000 and 100000 prefixes.
+ *
+ * @author Soham Dongargaonkar
+ */
+class RoutingTableBenchmark {
+    private final static int INFINITY = 16;
+    private final static int LOOKUPS = 10_000_000;     //per round
+    private final static int ROUNDS = 5;
+    private final static int ADDRESSES = 1 << 16;      //random destinations, reused
+
+    public static void main(String[] args) {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) {
+        Random random = new Random(size);
+        RoutingTable routingTable = new RoutingTable();
+        int prefixes = 0;
+        while (prefixes < size) {
+            byte mask = (byte) (8 + random.nextInt(25));
+            int address = random.nextInt() & PrefixTrie.mask(mask);
+            if (routingTable.get(address, mask) == null) {
+                byte cost = (byte) random.nextInt(INFINITY + 1);
+                routingTable.put(new RoutingTableEntry(address, mask, random.nextInt(), cost));
+                prefixes++;
+            }
+        }
+        routingTable.publish();
+        RoutingTable.Snapshot snapshot = routingTable.snapshot();
+
+        int[] addresses = new int[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = random.nextInt();
+        }
+        for (int round = 1; round <= ROUNDS; round++) {
+            int matched = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (snapshot.lookup(addresses[i & (ADDRESSES - 1)], INFINITY) != null) {
+                    matched++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d prefixes, round %d: %.1fM lookups/s, %.0f ns each, " +
+                            "%d%% matched%n", size, round, LOOKUPS * 1e3 / elapsed,
+                    (double) elapsed / LOOKUPS, matched * 100L / LOOKUPS);
+        }
+    }
+}
@@ -1,18 +1,139 @@
+import java.util.Arrays;
+
 /**
-* Holds an entry in the Routing Table of each Rover.
+* Holds an entry in the Routing Table of each Rover. Addresses are kept as ints, see
+* IPAddresses.
+* <p>
+* Entries are immutable, so that a RoutingTable snapshot can be read by any thread
+* while the table is being updated. A route is changed by putting a new entry for the
+* same prefix into the RoutingTable.
+* <p>
+* The RoutingTable stamps every entry that is put into it with a new version, so that
+* the routes that changed since an earlier version can be found.
+* <p>
+* A route can have several next hops of the same cost (equal-cost multipath). {@code
+* nextHop} is always the first of {@code nextHops}. RIP messages advertise all of them
+* (see RIPCodec). Packets are spread over all of them by {@code nextHopFor()}.
 *
 * @author Soham Dongargaonkar
 */
 class RoutingTableEntry {
-    String IPAddress;
-    byte mask;
-    String nextHop;
-    byte cost;
+    final int address;
+    final byte mask;
+    final int nextHop;
+    final int[] nextHops;   //never empty, and must not be changed
+    final byte cost;
+    final long version;     //0 until the entry is put into a RoutingTable
+
+    RoutingTableEntry(int address, byte mask, int nextHop, byte cost) {
+        this(address, mask, new int[]{nextHop}, cost, 0);
+    }
 
-    RoutingTableEntry(String IPAddress, byte mask, String nextHop, byte cost) {
-        this.IPAddress = IPAddress;
+    /**
+     * @param nextHops the equal-cost next hops, at least one. The array is kept, so it
+     *                 must not be changed afterwards.
+     */
+    RoutingTableEntry(int address, byte mask, int[] nextHops, byte cost) {
+        this(address, mask, nextHops, cost, 0);
+    }
+
+    private RoutingTableEntry(int address, byte mask, int[] nextHops, byte cost,
+                              long version) {
+        this.address = address & PrefixTrie.mask(mask);
         this.mask = mask;
-        this.nextHop = nextHop;
+        this.nextHop = nextHops[0];
+        this.nextHops = nextHops;
         this.cost = cost;
+        this.version = version;
+    }
+
+    /**
+     * @return a copy of this entry with a different cost.
+     */
+    RoutingTableEntry withCost(byte cost) {
+        return new RoutingTableEntry(address, mask, nextHops, cost);
+    }
+
+    /**
+     * @return a copy of this entry with a single, different next hop and a different
+     * cost.
+     */
+    RoutingTableEntry withNextHop(int nextHop, byte cost) {
+        return new RoutingTableEntry(address, mask, nextHop, cost);
+    }
+
+    /**
+     * @return a copy of this entry with one more next hop of the same cost.
+     */
+    RoutingTableEntry withAddedNextHop(int nextHop) {
+        int[] hops = Arrays.copyOf(nextHops, nextHops.length + 1);
+        hops[nextHops.length] = nextHop;
+        return new RoutingTableEntry(address, mask, hops, cost);
+    }
+
+    /**
+     * @return a copy of this entry without {@code nextHop}. Must only be called if the
+     * entry has another next hop.
+     */
+    RoutingTableEntry withoutNextHop(int nextHop) {
+        int[] hops = new int[nextHops.length - 1];
+        int i = 0;
+        for (int hop : nextHops) {
+            if (hop != nextHop && i < hops.length) {
+                hops[i++] = hop;
+            }
+        }
+        return new RoutingTableEntry(address, mask, hops, cost);
+    }
+
+    /**
+     * @return a copy of this entry with a different version.
+     */
+    RoutingTableEntry withVersion(long version) {
+        return new RoutingTableEntry(address, mask, nextHops, cost, version);
+    }
+
+    /**
+     * @return true if {@code nextHop} is one of the next hops of this entry.
+     */
+    boolean usesNextHop(int nextHop) {
+        for (int hop : nextHops) {
+            if (hop == nextHop) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Picks the next hop for a flow. The same flow always gets the same next hop (as
+     * long as the entry does not change), so its packets are not reordered by taking
+     * paths of different delay.
+     *
+     * @param flowHash a hash of the flow of a packet.
+     * @return one of {@code nextHops}.
+     */
+    int nextHopFor(int flowHash) {
+        return nextHops.length == 1 ? nextHop
+                : nextHops[Math.floorMod(flowHash, nextHops.length)];
+    }
+
+    String getIPAddress() {
+        return IPAddresses.toString(address);
+    }
+
+    String getNextHopIP() {
+        return IPAddresses.toString(nextHop);
+    }
+
+    /**
+     * @return every next hop, separated by commas.
+     */
+    String getNextHopIPs() {
+        StringBuilder builder = new StringBuilder(IPAddresses.toString(nextHop));
+        for (int i = 1; i < nextHops.length; i++) {
+            builder.append(',').append(IPAddresses.toString(nextHops[i]));
+        }
+        return builder.toString();
     }
 }
@@ -1,9 +1,19 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Represents a single Rover. To run this, start a new Rover with
@@ -19,30 +29,53 @@ import java.util.TimerTask;
  * @author Soham Dongargaonkar
  */
 public class Rover extends Thread {
-    private ArrayList<RoutingTableEntry> routingTable;
-    private HashMap<String, Timer> timers = new HashMap<>();
-    private HashMap<Integer, RipcomPacket> window = new HashMap<>();
-    private HashMap<Integer, Timer> packetTimer = new HashMap<>();
+    private RoutingTable routingTable;
+    private final TimerWheel timerWheel = new TimerWheel();
+    private final RIPCodec ripCodec = new RIPCodec();
+    RIPCodec.MessageSender ripSender = this::sendMulticast;    //replaced in RipLoopTest
+    private LinkStateRouter linkStateRouter;    //null when routing with RIP
+    private final Object updateLock = new Object();    //guards the fields below
+    private long advertisedVersion = 0;     //routes up to here have been advertised
+    private boolean holddown = false;       //no triggered updates until this ends
+    private boolean updatePending = false;  //a triggered update waits for holddown
+    private HashMap<Integer, TimerWheel.Timeout> timers = new HashMap<>();
+    private final HashMap<Long, Long> routeTimes = new HashMap<>();   //see sweepRoutes()
+    private final ConcurrentHashMap<Long, SenderSession> senderSessions =
+            new ConcurrentHashMap<>();     //see Session.key()
+    private final ConcurrentHashMap<Long, ReceiverSession> receiverSessions =
+            new ConcurrentHashMap<>();
+    private final ExecutorService sessionExecutor = newSessionExecutor();
+    private AsyncFileWriter fileWriter;
 
     private DatagramSocket datagramSocket;
-    private int seqNumber = 0;
-    private int ackNumber = 0;
-    private DataInputStream dataInputStream;
-    private FileOutputStream fileOutputStream;
-    private long lengthCounter;
+    private DatagramSender datagramSender;
 
     //final variables
     private final static int UPDATE_FREQUENCY = 5000; //5 seconds
     private final static byte DEFAULT_MASK = 24;
     private final static int INFINITY = 16;     //Max hop count in RIP is 15
     private final static int TIMEOUT = 10000;   // unreachable at 10 secs
-    private final static int UDP_SEND_MAX_RETRIES = 10;
-    private final static int BUFFER_CAPACITY = 5000;
-    private final static int WINDOW_SIZE = 1;
-    private final static int PACKET_TIMEOUT = 1000; //retry sending packet in 1 second
-    private final static int RECEIVE_SIZE = 5056;
+    private final static int MAX_PENDING_PER_DESTINATION = 64;
+    private final static int PENDING_TIMEOUT = 50000;  //drop unroutable packets after 50 secs
+    private final static int DEFAULT_WINDOW_SIZE = 16;
+    private final static int RECEIVE_SIZE = 9216;  //fits a 9000 byte jumbo frame
+    private final static int BATCH_SIZE = 32;   //datagrams handled per worker batch
+    private final static int WORKER_QUEUE_SIZE = 128;
+    private final static int DEFAULT_LINK_MTU = 1500;
+    private final static int MIN_HOLDDOWN = 1000;   //between triggered updates, see
+    private final static int MAX_HOLDDOWN = 5000;   //RFC 2453 section 3.10.1
+    private final static int ROUTE_TIMEOUT = 30000;     //6 missed updates, see RFC 2453
+    private final static int GARBAGE_TIMEOUT = 120000;  //section 3.8
+    private final static int SWEEP_INTERVAL = 1000;
 
     private final String selfIP;
+    private final int selfAddress;
+    private final ThreadLocal<SendBatch> sendBatch = new ThreadLocal<>();
+    private final PendingPackets pendingPackets =
+            new PendingPackets(MAX_PENDING_PER_DESTINATION, PENDING_TIMEOUT);
+    //Salts the flow hash that picks among equal-cost next hops, so that Rovers
+    //downstream do not all make the same choice (hash polarisation).
+    private final int ecmpSeed = ThreadLocalRandom.current().nextInt();
 
 
     //flags and args
@@ -55,6 +88,15 @@ public class Rover extends Thread {
     String destinationIP;
     int udpPort;
     String fileName;
+    int windowSize = DEFAULT_WINDOW_SIZE;
+    String congestionControl = "reno";
+    int workerThreads = Runtime.getRuntime().availableProcessors();
+    String fsync = "none";
+    int linkMtu = DEFAULT_LINK_MTU;
+    int fecGroupSize = 0;
+    boolean compress = false;
+    String routing = "rip";
+    ArrayList<String> advertisedPrefixes = new ArrayList<>();
 
 
     /**
@@ -68,8 +110,19 @@ public class Rover extends Thread {
      *                              getSelfIp()}
      */
     private Rover() throws SocketException, UnknownHostException {
-        routingTable = new ArrayList<>();
-        selfIP = getSelfIP();
+        this(getSelfIP());
+    }
+
+    /**
+     * Creates a Rover with a given IP address, without opening any sockets. Used as
+     * it is by simulations that run several Rovers in one process (see RipLoopTest).
+     *
+     * @param selfIP the IP address of this Rover.
+     */
+    Rover(String selfIP) {
+        routingTable = new RoutingTable();
+        this.selfIP = selfIP;
+        selfAddress = IPAddresses.toInt(selfIP);
     }
 
     /**
@@ -80,55 +133,74 @@ public class Rover extends Thread {
      * @throws UnknownHostException if Google was not found or the computer
      *                              was not connected to the internet.
      */
-    private String getSelfIP() throws SocketException, UnknownHostException {
+    private static String getSelfIP() throws SocketException, UnknownHostException {
         DatagramSocket datagramSocket = new DatagramSocket();
         datagramSocket.connect(InetAddress.getByName("8.8.8.8"), 25252);
         return datagramSocket.getLocalAddress().getHostAddress();
     }
 
     /**
-     * Used to create a new DatagramSocket with a {@code ripPort}. This method exists
-     * because {@code ripPort} is not known until after {@code ArgumentParser
+     * Used to create a new DatagramSocket with a {@code ripPort}, and the
+     * DatagramSender for Ripcom packets to {@code udpPort}. This method exists
+     * because these ports are not known until after {@code ArgumentParser
      * .parseArguments()} is executed.
      */
     private void assignDatagramSocket() {
         try {
             datagramSocket = new DatagramSocket(ripPort);
-        } catch (SocketException e) {
+            datagramSender = new DatagramSender(udpPort);
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * This method creates two threads; a listener thread that listens on
-     * the multicast channel for RIP packets, and a Timer thread that calls
-     * sendRIPMessage every UPDATE_FREQUENCY intervals.
+     * This method creates three threads; a listener thread that listens on
+     * the multicast channel for RIP packets, the UDP server thread, and the
+     * AsyncFileWriter's thread that writes received files. With RIP, it also
+     * schedules sendRIPMessage on {@code timerWheel} every UPDATE_FREQUENCY
+     * intervals, and sweepRoutes every SWEEP_INTERVAL. With link-state routing, it
+     * starts the LinkStateRouter instead.
      * <p>
      * This method is called after parsing user arguments, ensuring that
      * before the threads are created, the variables are set according to the
      * flags.
      */
     private void startThreads() {
-        Thread listenerThread =
-                new Thread(this::startListening); //starts the listener thread
-        listenerThread.start();
+        fileWriter = new AsyncFileWriter(AsyncFileWriter.Sync.valueOf(fsync.toUpperCase()));
+        fileWriter.start();
 
-        new Timer().scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
+        if (routing.equals("link-state")) {
+            startLinkStateRouter();
+        } else {
+            timerWheel.scheduleAtFixedRate(() -> {
                 try {
                     sendRIPMessage();
                 } catch (UnknownHostException e) {
                     e.printStackTrace();
                 }
+            }, 0, UPDATE_FREQUENCY);
+            timerWheel.scheduleAtFixedRate(this::sweepRoutes, SWEEP_INTERVAL,
+                    SWEEP_INTERVAL);
+        }
+
+        Thread listenerThread =
+                new Thread(this::startListening); //starts the listener thread
+        listenerThread.start();
+
+        timerWheel.scheduleAtFixedRate(() -> {
+            int expired = pendingPackets.expire();
+            if (expired > 0) {
+                System.out.println("Dropped " + expired + " packets that found no " +
+                        "route within " + PENDING_TIMEOUT + " ms");
             }
-        }, 0, UPDATE_FREQUENCY);
+        }, PENDING_TIMEOUT, 1000);
 
 
         Thread udpServerThread = new Thread(() -> {
             try {
                 udpServer();
-            } catch (IOException | InterruptedException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         });
@@ -136,12 +208,14 @@ public class Rover extends Thread {
     }
 
     /**
-     * Listens on the multicast ip for RIP packets.
+     * Listens on the multicast ip for RIP packets, or for the messages of {@code
+     * linkStateRouter} if there is one.
      */
     private void startListening() {
         try {
             MulticastSocket socket = new MulticastSocket(multicastPort);
-            byte[] buffer = new byte[256];
+            byte[] buffer = new byte[Math.max(RIPCodec.MAX_MESSAGE_SIZE,
+                    LinkStateRouter.MAX_MESSAGE_SIZE)];
             InetAddress iGroup = InetAddress.getByName(multicastIp);
             socket.joinGroup(iGroup);
 
@@ -149,17 +223,26 @@ public class Rover extends Thread {
                 DatagramPacket datagramPacket = new DatagramPacket(buffer,
                         buffer.length);
                 socket.receive(datagramPacket);
+                int senderAddress = ByteBuffer.wrap(datagramPacket.getAddress()
+                        .getAddress()).getInt();
+                if (linkStateRouter != null) {
+                    linkStateRouter.receive(buffer, datagramPacket.getLength(),
+                            senderAddress);
+                    continue;
+                }
                 RIPEntryHolder ripEntryHolder = unpackRIPEntries(datagramPacket);
+                if (ripEntryHolder == null) {
+                    continue;
+                }
                 int receivedRoverID = ripEntryHolder.getRoverID();
                 if (receivedRoverID == roverID) {   //Ignore self packets
                     continue;
                 }
                 ArrayList<RoutingTableEntry> receivedEntries =
                         ripEntryHolder.getArrayList();
-                addSingleRoutingEntry(receivedRoverID, datagramPacket.getAddress());
-                startTimerFor(datagramPacket.getAddress().getHostAddress(),
-                        receivedRoverID);
-                updateRoutingTable(receivedEntries, datagramPacket.getAddress());
+                addSingleRoutingEntry(receivedRoverID, senderAddress);
+                startTimerFor(senderAddress, receivedRoverID);
+                updateRoutingTable(receivedEntries, senderAddress);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -167,241 +250,198 @@ public class Rover extends Thread {
     }
 
     /**
-     * Called by a Timer thread every {@code UPDATE_INTERVAL} seconds. This
-     * method calls getRIPPacket(), and sends the RIP Packet on the multicast
-     * network.
+     * Called by the timer wheel every {@code UPDATE_INTERVAL} seconds. This
+     * method sends the whole routing table on the multicast network.
      *
      * @throws UnknownHostException if a connection cannot be made by the
      *                              datagram packet.
      */
-    private void sendRIPMessage() throws UnknownHostException {
-        byte[] buffer = getRIPPacket();
-        InetAddress iGroup = null;
-
-        try {
-            iGroup = InetAddress.getByName(multicastIp);
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
-        }
-        DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length,
-                iGroup, multicastPort);
-
-        try {
-            datagramSocket.send(datagramPacket);
-        } catch (IOException e) {
-            e.printStackTrace();
+    void sendRIPMessage() throws UnknownHostException {
+        synchronized (updateLock) {
+            RoutingTable.Snapshot snapshot = routingTable.snapshot();
+            sendRIPEntries(snapshot);
+            advertisedVersion = snapshot.getVersion();
         }
     }
 
     /**
-     * Maintains a HashMap of timers.
-     * <p>
-     * When this function is called, it first searches if the timer for the
-     * given IP exists. If it does, it is cancelled, initialized to a new
-     * Timer, and started for {@code TIMEOUT} seconds.
-     * <p>
-     * If any timer reaches {@code TIMEOUT} successfully, it means that a
-     * Rover timed out. The function then sets the distance of that Rover to
-     * INFINITY, and all next hops that were this IP to INFINITY.
-     *
-     * @param ipAddress an IP Address of a Rover that sent this Rover a RIP
-     *                  packet directly. Hence, that Rover is the neighbour
-     *                  of this Rover, and a timer must be maintained for it.
-     * @param roverID   the ID of the rover that send this Rover a RIP message.
-     *                  This is NOT the ID of this rover!
+     * Sends a triggered update, which holds only the routes that changed since the
+     * last update of any kind. After a triggered update, the next one is held back
+     * for a random 1 to 5 seconds, and then carries every change made in the
+     * meantime. Nothing is sent if no route changed.
      */
-    private void startTimerFor(String ipAddress, int roverID) {
-        Timer timer;
-        if (timers.containsKey(ipAddress)) {
-            timer = timers.get(ipAddress);
-            timer.cancel();
-        }
-        timer = new Timer();
-        timers.put(ipAddress, timer);
-        String localIP = getPrivateIP(roverID);
-
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                System.out.println(localIP + " timed out!");
-                RoutingTableEntry r = findRoutingTableEntryForIp(localIP);
-                r.cost = INFINITY;
-                ArrayList<RoutingTableEntry> arrayList =
-                        getEntriesUsingIp(ipAddress);
-                for (RoutingTableEntry routingTableEntry : arrayList) {
-                    routingTableEntry.cost = INFINITY;
-                }
-                displayRoutingTable();
-                try {
-                    sendRIPMessage();       //Triggered update.
-                } catch (UnknownHostException e) {
-                    e.printStackTrace();
-                }
+    private void triggerUpdate() {
+        synchronized (updateLock) {
+            if (holddown) {
+                updatePending = true;
+                return;
             }
-        }, TIMEOUT);
+            RoutingTable.Snapshot snapshot = routingTable.snapshot();
+            List<RoutingTableEntry> changed = snapshot.changedSince(advertisedVersion);
+            if (changed.isEmpty()) {
+                return;
+            }
+            sendRIPEntries(changed);
+            advertisedVersion = snapshot.getVersion();
+            holddown = true;
+            timerWheel.schedule(this::endHolddown,
+                    ThreadLocalRandom.current().nextInt(MIN_HOLDDOWN, MAX_HOLDDOWN + 1));
+        }
     }
 
     /**
-     * Constructs a RIP packet and returns the byte array formed.
-     *
-     * @return the RIP packet in a byte array
+     * Called by the timer wheel once a holddown is over. Sends the triggered update
+     * that was held back, if there is one.
      */
-    private byte[] getRIPPacket() throws UnknownHostException {
-        ArrayList<Byte> arrayList = new ArrayList<>();
-
-        byte command = (byte) (1);
-        byte zero = 0;
-
-        arrayList.add(command);     // Command
-
-        byte version = 2;
-        arrayList.add(version);     // Version
-
-        /*
-            The next field is supposed to be unused zeros, but this program
-            modifies the RIP packet by including the rover ID here.
-         */
-        arrayList.add(zero);
-        arrayList.add((byte) roverID);
-
-        for (RoutingTableEntry r : routingTable) {
-            arrayList.add(zero);
-            arrayList.add((byte) 2);     // Address Family Identifier
-
-            byte routeTag = 1;
-            arrayList.add(routeTag);
-            arrayList.add(routeTag);    // Route Tag (placeholder 1 for now)
-
-            String ip = r.IPAddress;
-            byte[] ipBytes = InetAddress.getByName(ip).getAddress();
-
-            for (byte b : ipBytes) {
-                arrayList.add(b);       //IP Address
-            }
-
-            byte subnetMask = r.mask;
-            arrayList.add(zero);
-            arrayList.add(zero);
-            arrayList.add(zero);
-            arrayList.add(subnetMask);  //Subnet Mask
-
-            String nextHop = r.nextHop;
-            byte[] nextHopBytes = InetAddress.getByName(nextHop).getAddress();
-
-            for (byte b : nextHopBytes) {
-                arrayList.add(b);       //Next Hop
+    private void endHolddown() {
+        synchronized (updateLock) {
+            holddown = false;
+            if (!updatePending) {
+                return;
             }
-
-            byte cost = r.cost;
-            arrayList.add(zero);
-            arrayList.add(zero);
-            arrayList.add(zero);
-            arrayList.add(cost);        // Metric
+            updatePending = false;
         }
+        triggerUpdate();
+    }
 
-        int size = arrayList.size();
-        Byte[] bytes = arrayList.toArray(new Byte[size]);
-        byte[] ripPacket = new byte[size];
-        int i = 0;
-        for (byte b : bytes) {
-            ripPacket[i++] = b;
+    /**
+     * Encodes routes with {@code ripCodec}, and sends the resulting RIP messages (as
+     * many as the routes need) on the multicast network.
+     *
+     * @param entries the routes to send.
+     */
+    private void sendRIPEntries(Iterable<RoutingTableEntry> entries) {
+        try {
+            ripCodec.encode(roverID, entries, ripSender);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return ripPacket;
     }
 
     /**
-     * Decodes a RIP Packet and makes RoutingTableEntries out of it.
+     * Sends a single message on the multicast network.
      *
-     * @param ripPacket The received RIP packet
-     * @return An ArrayList of all possible RoutingTableEntries that can be
-     * constructed out of this packet.
+     * @param message the message, from index 0.
+     * @param length  the length of the message.
+     * @throws IOException if the multicast IP is unknown or the message cannot be
+     *                     sent.
      */
-    @SuppressWarnings("MismatchedReadAndWriteOfArray")
-    private RIPEntryHolder decodeRIPPacket(byte[] ripPacket) {
-        ArrayList<RoutingTableEntry> arrayList = new ArrayList<>();
-        int i = 0;
-        i += 2; //Ignore command and version
-//        byte command = ripPacket[i++];
-//
-//        byte version = ripPacket[i++];
-
-        i++;
-        int roverID = ripPacket[i++];
-        while (i < ripPacket.length) {
-            byte[] AFI = new byte[2];
-            AFI[0] = ripPacket[i++];
-            AFI[1] = ripPacket[i++];
-
-            byte[] routeTag = new byte[2];
-            routeTag[0] = ripPacket[i++];
-            routeTag[1] = ripPacket[i++];
-
-            int[] ipAddress = new int[4];
-            fillIPAddress(ipAddress, ripPacket, i);
-            i += 4;
-            String ipAddressStringForm = getIPAddressInStringForm(ipAddress);
-
-            i += 3;
-            byte subnetMask = ripPacket[i++];
-
-            int[] nextHop = new int[4];
-            fillIPAddress(nextHop, ripPacket, i);
-            i += 4;
-
-            i += 3;
-            String nextHopInStringForm = getIPAddressInStringForm(nextHop);
-
-            byte cost = ripPacket[i];
+    private void sendMulticast(byte[] message, int length) throws IOException {
+        InetAddress iGroup = InetAddress.getByName(multicastIp);
+        datagramSocket.send(new DatagramPacket(message, length, iGroup, multicastPort));
+    }
 
-            RoutingTableEntry r = new RoutingTableEntry(ipAddressStringForm,
-                    subnetMask, nextHopInStringForm, cost);
-            arrayList.add(r);
-            i++;
-        }
-        return new RIPEntryHolder(arrayList, roverID);
+    /**
+     * Starts routing with a LinkStateRouter instead of RIP. Its LSAs carry this
+     * Rover's own 10.0.{roverID}.0/24 network and every prefix in {@code
+     * advertisedPrefixes}, and its routes are put into the routing table by {@code
+     * installRoutes()}.
+     */
+    private void startLinkStateRouter() {
+        List<RoutingTableEntry> ownPrefixes = routingTable.getEntries();
+        ownPrefixes.add(0, new RoutingTableEntry(getPrivateAddress(roverID), DEFAULT_MASK,
+                selfAddress, (byte) 0));
+        linkStateRouter = new LinkStateRouter(roverID, ownPrefixes, timerWheel,
+                this::sendMulticast, this::installRoutes);
+        linkStateRouter.start();
     }
 
     /**
-     * Fills ipAddress[] with the unsigned representation of the bytes from
-     * the RIP Packet.
+     * Called by the LinkStateRouter after each run of Dijkstra's algorithm. Makes the
+     * learnt routes of the routing table the same as {@code routes}: new and changed
+     * routes are put into it, and routes that are no longer reachable are removed
+     * straight away, since link-state routing never counts to infinity. Routes that
+     * did not change are left alone, so they keep their version.
      *
-     * @param ipAddress the array that needs to be filled
-     * @param ripPacket the packet that contains the IP
-     * @param i         denotes what value to start from
+     * @param routes a route to every prefix of every other Rover that can be reached.
      */
-    private void fillIPAddress(int[] ipAddress, byte[] ripPacket, int i) {
-        for (int j = 0; j < 4; j++) {
-            ipAddress[j] = Byte.toUnsignedInt(ripPacket[i++]);
+    private void installRoutes(List<RoutingTableEntry> routes) {
+        boolean changed = false;
+        HashSet<Long> reachable = new HashSet<>();
+        synchronized (routingTable) {
+            for (RoutingTableEntry r : routes) {
+                reachable.add(prefixKey(r));
+                RoutingTableEntry current = findRoutingTableEntry(r.address, r.mask);
+                if (current == null || current.cost != r.cost
+                        || !Arrays.equals(current.nextHops, r.nextHops)) {
+                    routingTable.put(r);
+                    changed = true;
+                }
+            }
+            for (RoutingTableEntry r : routingTable.getEntries()) {
+                if (r.cost != 0 && !reachable.contains(prefixKey(r))) {
+                    routingTable.remove(r.address, r.mask);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                publishRoutes();
+            }
+        }
+
+        if (changed) {
+            displayRoutingTable();
         }
     }
 
     /**
-     * Constructs a String representation of the ipAddress
+     * Maintains a HashMap of timeouts on {@code timerWheel}.
+     * <p>
+     * When this function is called, it first searches if the timeout for the
+     * given IP exists. If it does, it is cancelled, and a new timeout is
+     * scheduled for {@code TIMEOUT} seconds.
+     * <p>
+     * If any timer reaches {@code TIMEOUT} successfully, it means that a
+     * Rover timed out. The function then sets the distance of that Rover to
+     * INFINITY, and all routes whose only next hop was this IP to INFINITY.
+     * Routes with other equal-cost next hops just lose this one.
      *
-     * @param ipAddress ipv4 address (int[] of length 4)
-     * @return the String representation of the address
+     * @param ipAddress an IP Address of a Rover that sent this Rover a RIP
+     *                  packet directly. Hence, that Rover is the neighbour
+     *                  of this Rover, and a timer must be maintained for it.
+     * @param roverID   the ID of the rover that send this Rover a RIP message.
+     *                  This is NOT the ID of this rover!
      */
-    private String getIPAddressInStringForm(int[] ipAddress) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < ipAddress.length; i++) {
-            sb.append(ipAddress[i]);
-            if (i < ipAddress.length - 1) sb.append(".");
-        }
-
-        return sb.toString();
+    private void startTimerFor(int ipAddress, int roverID) {
+        timerWheel.cancel(timers.get(ipAddress));
+        int localAddress = getPrivateAddress(roverID);
+
+        TimerWheel.Timeout timeout = timerWheel.schedule(() -> {
+            System.out.println(IPAddresses.toString(localAddress) + " timed out!");
+            synchronized (routingTable) {
+                RoutingTableEntry r = findRoutingTableEntry(localAddress, DEFAULT_MASK);
+                if (r != null && r.cost < INFINITY) {
+                    putRoute(r.withCost((byte) INFINITY));
+                }
+                for (RoutingTableEntry routingTableEntry :
+                        routingTable.getEntriesUsing(ipAddress)) {
+                    if (routingTableEntry.nextHops.length > 1) {
+                        putRoute(routingTableEntry.withoutNextHop(ipAddress));
+                    } else if (routingTableEntry.cost < INFINITY) {
+                        putRoute(routingTableEntry.withCost((byte) INFINITY));
+                    }
+                }
+                publishRoutes();
+            }
+            displayRoutingTable();
+            triggerUpdate();
+        }, TIMEOUT);
+        timers.put(ipAddress, timeout);
     }
 
     /**
      * Gets the RIP contents and retrieves an ArrayList of RoutingTableEntries
-     * from decodeRIPPacket().
+     * from {@code RIPCodec.decode()}.
      *
      * @param datagramPacket the received RIP packet from another Rover.
+     * @return the decoded entries, or null if the packet was too short.
      */
     private RIPEntryHolder unpackRIPEntries(DatagramPacket datagramPacket) {
-        byte[] receivedRipPacket = new byte[datagramPacket.getLength()];
-        System.arraycopy(datagramPacket.getData(), 0, receivedRipPacket, 0,
-                receivedRipPacket.length);
-        RIPEntryHolder ripEntryHolder = decodeRIPPacket(receivedRipPacket);
+        RIPEntryHolder ripEntryHolder = RIPCodec.decode(datagramPacket.getData(),
+                datagramPacket.getLength());
+        if (ripEntryHolder == null) {
+            return null;
+        }
         ArrayList<RoutingTableEntry> entries = ripEntryHolder.getArrayList();
 
         if (verboseOutputs) {
@@ -409,7 +449,8 @@ public class Rover extends Thread {
                     datagramPacket.getAddress().getHostAddress());
             System.out.println("Address\t\tNextHop\t\tCost");
             for (RoutingTableEntry r : entries) {
-                System.out.println(r.IPAddress + "\t" + r.nextHop + "\t" + r.cost);
+                System.out.println(r.getIPAddress() + "\t" + r.getNextHopIP() + "\t" +
+                        r.cost);
             }
         }
 
@@ -421,37 +462,35 @@ public class Rover extends Thread {
      * (or updates an existing IP with mask to a hop count of 1) since this
      * IP address is directly reachable.
      *
-     * @param inetAddress represents an IP address that responded to a RIP
-     *                    request. Since it responded, the hop count is 1,
-     *                    and the next hop is itself.
+     * @param nextHop represents an IP address that responded to a RIP
+     *                request. Since it responded, the hop count is 1,
+     *                and the next hop is itself.
      */
-    private void addSingleRoutingEntry(int receivedRoverId,
-                                       InetAddress inetAddress) {
+    private void addSingleRoutingEntry(int receivedRoverId, int nextHop) {
         if (receivedRoverId == roverID) {
             return;
         }
 
-        String ipToAdd = getPrivateIP(receivedRoverId);
-        String nextHop = inetAddress.getHostAddress();
-        boolean presentInTable = false;
+        int ipToAdd = getPrivateAddress(receivedRoverId);
         boolean changed = false;
-        for (RoutingTableEntry routingTableEntry : routingTable) {
-            if (routingTableEntry.IPAddress.equals(ipToAdd)) {
-                presentInTable = true;
+        synchronized (routingTable) {
+            RoutingTableEntry routingTableEntry = findRoutingTableEntry(ipToAdd, DEFAULT_MASK);
+            if (routingTableEntry != null) {
                 if (routingTableEntry.cost != 1) {
-                    routingTableEntry.nextHop = nextHop;
-                    routingTableEntry.cost = 1;
+                    putRoute(routingTableEntry.withNextHop(nextHop, (byte) 1));
                     changed = true;
-                    break;
+                } else {
+                    refreshRoute(routingTableEntry);
                 }
+            } else {
+                RoutingTableEntry r = new RoutingTableEntry(ipToAdd, DEFAULT_MASK
+                        , nextHop, (byte) 1);
+                putRoute(r);
+                changed = true;
+            }
+            if (changed) {
+                publishRoutes();
             }
-        }
-
-        if (!presentInTable) {
-            RoutingTableEntry r = new RoutingTableEntry(ipToAdd, DEFAULT_MASK
-                    , nextHop, (byte) 1);
-            routingTable.add(r);
-            changed = true;
         }
 
         if (changed) {
@@ -460,13 +499,21 @@ public class Rover extends Thread {
     }
 
     /**
-     * Generates an IP address of the form "10.0.{@code roverID}.0"
+     * Generates the address 10.0.{@code roverID}.0, in its int form (see
+     * IPAddresses).
      *
      * @param roverID the id of this rover.
-     * @return the generated IP
+     * @return the generated address
      */
-    private String getPrivateIP(int roverID) {
-        return "10.0." + roverID + ".0";
+    private int getPrivateAddress(int roverID) {
+        return (10 << 24) | ((roverID & 0xFF) << 8);
+    }
+
+    /**
+     * @return the last published snapshot of the routing table. Never blocks.
+     */
+    RoutingTable.Snapshot getRoutes() {
+        return routingTable.snapshot();
     }
 
     /**
@@ -477,9 +524,11 @@ public class Rover extends Thread {
         System.out.println("============================");
         System.out.println("Routing Table Entries");
         System.out.println("Address\t\tNextHop\t\tCost");
-        for (RoutingTableEntry r : routingTable) {
-            System.out.println(r.IPAddress + "/" + DEFAULT_MASK + "\t" + r.nextHop + "\t" + r.cost);
+        for (RoutingTableEntry r : routingTable.snapshot()) {
+            System.out.println(r.getIPAddress() + "/" + r.mask + "\t" +
+                    r.getNextHopIPs() + "\t" + r.cost);
         }
+        System.out.println("Armed timers: " + timerWheel.armedCount());
         System.out.println();
     }
 
@@ -492,114 +541,258 @@ public class Rover extends Thread {
      * The method also checks if the table was updated or not by using the
      * variable {@code updated}. If this variable is set to true by the end of
      * the method, the updated routing table is displayed to STDOUT. More
-     * importantly, a RIP message is also multicasted on the network to
-     * advertise the new found routes. This feature thus implements triggered
-     * updates.
+     * importantly, the changed routes are also multicasted on the network to
+     * advertise them (see {@code triggerUpdate()}). This feature thus implements
+     * triggered updates.
+     * <p>
+     * A route with several equal-cost next hops comes as one entry per next hop (see
+     * {@code RIPCodec.encode()}). Only the first of them is used, and the whole route
+     * is ignored if any of them is this Rover.
      *
      * @param receivedTable A RIP table that was received by this Rover.
      */
-    private void updateRoutingTable(ArrayList<RoutingTableEntry> receivedTable,
-                                    InetAddress inetAddress) throws UnknownHostException {
-        String senderIp = inetAddress.getHostAddress();
+    void updateRoutingTable(ArrayList<RoutingTableEntry> receivedTable, int senderIp)
+            throws UnknownHostException {
         boolean updated = false;
-
+        int privateAddress = getPrivateAddress(roverID);
+        HashSet<Long> throughThisRover = new HashSet<>();
         for (RoutingTableEntry r : receivedTable) {
-            String ipAddress = r.IPAddress;
-            int roverID = Integer.parseInt(ipAddress.split("\\.")[2]);
-            RoutingTableEntry routingTableEntry =
-                    findRoutingTableEntryForIp(ipAddress);
-            if (roverID != this.roverID) {
-                byte cost = (byte) (r.cost + 1);
-                if (cost > INFINITY) {
-                    cost = INFINITY;
-                }
+            if (r.nextHop == selfAddress) {
+                throughThisRover.add(prefixKey(r));
+            }
+        }
+        HashSet<Long> handled = new HashSet<>();
 
-                if (routingTableEntry == null) {
-                    String localIP = getPrivateIP(roverID);
-                    routingTableEntry = new RoutingTableEntry(localIP,
-                            DEFAULT_MASK, senderIp, cost);
-                    routingTable.add(routingTableEntry);
-                    updated = true;
-                    continue;
-                }
-                if (r.nextHop.equals(selfIP)) {
-                    /*
-                        Split Horizon with Poisoned Reverse. Basically, if
-                        this Rover gets a packet that uses it as the next
-                        hop, treat it as infinity.
-                     */
-                    continue;
+        synchronized (routingTable) {
+            for (RoutingTableEntry r : receivedTable) {
+                if (!handled.add(prefixKey(r))) {
+                    continue;       //another next hop of a route that was handled
                 }
-                if (cost < getCost(routingTableEntry)) {
-                    routingTableEntry.nextHop = senderIp;
-                    routingTableEntry.cost = cost;
-                    updated = true;
-                } else {
-                    /*
-                        Metric is higher than current. However, it must be
-                        updated if the metric came from the router that we are
-                        using as next hop.
-                        The inner if condition is simply there for the
-                        updated variable, which is set if the earlier cost
-                        was different from the newer cost.
-                    */
-                    if (senderIp.equals(routingTableEntry.nextHop)) {
-                        if (routingTableEntry.cost != cost) {
-                            routingTableEntry.cost = cost;
+                int ipAddress = r.address;
+                RoutingTableEntry routingTableEntry = findRoutingTableEntry(ipAddress, r.mask);
+                if (ipAddress != privateAddress || r.mask != DEFAULT_MASK) {
+                    byte cost = (byte) (r.cost + 1);
+                    if (cost > INFINITY) {
+                        cost = INFINITY;
+                    }
+
+                    if (throughThisRover.contains(prefixKey(r))) {
+                        /*
+                            Split Horizon with Poisoned Reverse. Basically, if
+                            this Rover gets a packet that uses it as a next
+                            hop, even one of several equal-cost ones, treat it
+                            as infinity. This comes first, so that a route
+                            that was flushed is not learnt back through a
+                            Rover that reaches it through this one.
+                         */
+                        continue;
+                    }
+                    if (routingTableEntry == null) {
+                        if (cost < INFINITY) {  //never re-learn a flushed route
+                            putRoute(new RoutingTableEntry(ipAddress, r.mask,
+                                    senderIp, cost));
                             updated = true;
                         }
+                        continue;
+                    }
+                    if (cost < getCost(routingTableEntry)) {
+                        putRoute(routingTableEntry.withNextHop(senderIp, cost));
+                        updated = true;
+                    } else if (routingTableEntry.usesNextHop(senderIp)) {
+                        /*
+                            Metric is higher than current. However, it must be
+                            updated if the metric came from a router that we are
+                            using as next hop. If we have other next hops of the
+                            old cost, this one is just dropped instead.
+                            The if conditions are simply there for the updated
+                            variable, which is set if the earlier cost was
+                            different from the newer cost. An unchanged route
+                            from a next hop is still alive, so its timeout starts
+                            over.
+                        */
+                        if (routingTableEntry.cost == cost) {
+                            refreshRoute(routingTableEntry);
+                        } else if (routingTableEntry.nextHops.length > 1) {
+                            putRoute(routingTableEntry.withoutNextHop(senderIp));
+                            updated = true;
+                        } else {
+                            putRoute(routingTableEntry.withCost(cost));
+                            updated = true;
+                        }
+                    } else if (cost == routingTableEntry.cost && cost < INFINITY) {
+                        /*
+                            Equal-cost multipath: another router offers the same
+                            metric, so packets are spread over both.
+                         */
+                        putRoute(routingTableEntry.withAddedNextHop(senderIp));
+                        updated = true;
                     }
                 }
             }
+            if (updated) {
+                publishRoutes();
+            }
         }
 
         if (verboseOutputs || updated) {
             displayRoutingTable();
         }
         if (updated)
-            sendRIPMessage();       //Triggered Updates for fast recovery
+            triggerUpdate();        //Triggered Updates for fast recovery
     }
 
     /**
-     * Scans the current table and returns an entry for an IP address.
+     * Puts a route learnt from another Rover into the routing table, and starts its
+     * timer in {@code routeTimes}: the route timeout if it is reachable, or the
+     * garbage-collection timer if its cost is INFINITY. The caller must hold the lock
+     * on {@code routingTable}.
      *
-     * @param ip an IP Address in consideration by updateRoutingTable().
-     * @return if found: the matching RoutingTableEntry; else: null.
+     * @param r the route to put.
+     */
+    private void putRoute(RoutingTableEntry r) {
+        routingTable.put(r);
+        routeTimes.put(prefixKey(r), System.currentTimeMillis());
+    }
+
+    /**
+     * Restarts the route timeout of a reachable route that was advertised again
+     * without changing. The caller must hold the lock on {@code routingTable}.
+     *
+     * @param r the route that was advertised again.
+     */
+    private void refreshRoute(RoutingTableEntry r) {
+        if (r.cost < INFINITY) {
+            routeTimes.put(prefixKey(r), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return the key of a route's prefix in {@code routeTimes}.
+     */
+    private static long prefixKey(RoutingTableEntry r) {
+        return ((long) r.address << 8) | r.mask;
+    }
+
+    /**
+     * Called by the timer wheel every {@code SWEEP_INTERVAL}. This is the timeout and
+     * garbage-collection lifecycle of RFC 2453 (section 3.8), for every learnt route
+     * at once:
+     * <ul>
+     * <li>A reachable route that has not been advertised again for ROUTE_TIMEOUT is
+     * set to INFINITY, and a triggered update tells the neighbours.
+     * <li>A route that has had a cost of INFINITY for GARBAGE_TIMEOUT, which gave the
+     * neighbours time to hear that, is removed from the table. It is not advertised
+     * any more.
+     * </ul>
+     * Local routes (cost 0) never time out. A single sweep serves the whole table, so
+     * no timer is kept per route.
+     */
+    private void sweepRoutes() {
+        long now = System.currentTimeMillis();
+        boolean timedOut = false;
+        boolean flushed = false;
+        synchronized (routingTable) {
+            for (RoutingTableEntry r : routingTable.getEntries()) {
+                Long since = routeTimes.get(prefixKey(r));
+                if (r.cost == 0 || since == null) {
+                    continue;
+                }
+                if (r.cost < INFINITY && now - since >= ROUTE_TIMEOUT) {
+                    putRoute(r.withCost((byte) INFINITY));
+                    timedOut = true;
+                } else if (r.cost >= INFINITY && now - since >= GARBAGE_TIMEOUT) {
+                    routingTable.remove(r.address, r.mask);
+                    routeTimes.remove(prefixKey(r));
+                    flushed = true;
+                }
+            }
+            if (timedOut || flushed) {
+                publishRoutes();
+            }
+        }
+
+        if (timedOut || flushed) {
+            displayRoutingTable();
+        }
+        if (timedOut) {
+            triggerUpdate();
+        }
+    }
+
+    /**
+     * Publishes the changes made to the routing table, and sends every pending packet
+     * whose destination can now be reached.
      */
-    private RoutingTableEntry findRoutingTableEntryForIp(String ip) {
-        for (RoutingTableEntry r : routingTable) {
-            if (r.IPAddress.equals(ip)) {
-                return r;
+    private void publishRoutes() {
+        routingTable.publish();
+        if (pendingPackets.size() == 0) {
+            return;
+        }
+        RoutingTable.Snapshot snapshot = routingTable.snapshot();
+        for (PendingPackets.Pending pending : pendingPackets.takeRoutable(
+                destination -> snapshot.lookup(destination, INFINITY) != null)) {
+            try {
+                transmit(ByteBuffer.wrap(pending.packet),
+                        snapshot.lookup(pending.destinationAddress, INFINITY), false);
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
-        return null;
     }
 
     /**
-     * Finds a list of IPs that use this IP for their next hop.
+     * Returns the entry for exactly this prefix from the working copy of the table.
+     * Only meant for code that is about to update the table.
      *
-     * @param ip An IP address that needs to be searched for in nextHop
-     * @return the list of IPs that use @param ip for next hop.
+     * @param address an IP Address in consideration by updateRoutingTable().
+     * @param mask    the length of the prefix.
+     * @return if found: the matching RoutingTableEntry; else: null.
      */
-    private ArrayList<RoutingTableEntry> getEntriesUsingIp(String ip) {
-        ArrayList<RoutingTableEntry> arrayList = new ArrayList<>();
-        for (RoutingTableEntry routingTableEntry : routingTable) {
-            if (routingTableEntry.nextHop.equals(ip)) {
-                arrayList.add(routingTableEntry);
-            }
+    private RoutingTableEntry findRoutingTableEntry(int address, byte mask) {
+        return routingTable.get(address, mask);
+    }
+
+    /**
+     * Adds a route with a cost of 0 for every prefix in {@code advertisedPrefixes}.
+     * These are advertised like any other route, so other Rovers will send packets
+     * for any address inside them to this Rover.
+     */
+    private void addLocalRoutes() {
+        for (String advertisedPrefix : advertisedPrefixes) {
+            String[] parts = advertisedPrefix.split("/");
+            RoutingTableEntry r = new RoutingTableEntry(IPAddresses.toInt(parts[0]),
+                    Byte.parseByte(parts[1]), selfAddress, (byte) 0);
+            routingTable.put(r);
+        }
+        publishRoutes();
+    }
+
+    /**
+     * Decides whether a packet for {@code destinationAddress} is meant for this Rover;
+     * that is, whether the address is inside this Rover's own 10.0.{roverID}.0/24
+     * network or inside one of {@code advertisedPrefixes} (and no longer prefix
+     * learnt from another Rover covers it).
+     *
+     * @param destinationAddress the destination address of a packet.
+     * @return true if the packet should be accepted rather than forwarded.
+     */
+    private boolean isLocalAddress(int destinationAddress) {
+        if ((destinationAddress & PrefixTrie.mask(DEFAULT_MASK)) == getPrivateAddress(roverID)) {
+            return true;
         }
-        return arrayList;
+        RoutingTableEntry r = routingTable.snapshot().lookup(destinationAddress, INFINITY);
+        return r != null && r.cost == 0;
     }
 
     /**
      * Accepts a RoutingTableEntry and returns the corresponding cost if it
      * is not null. Note that the routingTableEntry is an entry that has been
-     * found by findRoutingTableEntryForIp(); it represents an entry that
+     * found by findRoutingTableEntry(); it represents an entry that
      * corresponds to the ipAddress that is currently being considered by
      * updateRoutingTable().
      *
      * @param routingTableEntry an entry found for an ipAddress (by
-     *                          findRoutingTableEntryForIp()
+     *                          findRoutingTableEntry()
      * @return the matching cost if not null, otherwise infinity.
      */
     private int getCost(RoutingTableEntry routingTableEntry) {
@@ -607,334 +800,406 @@ public class Rover extends Thread {
     }
 
     /**
-     * Listens for incoming Ripcom packets and, depending on whether the destination IP
-     * included inside is the Rover's own IP, sends it to the next hop or displays the
-     * message contents.
+     * Listens for incoming Ripcom packets and hands them to the worker threads of a
+     * FlowDispatcher. Depending on whether the destination IP included inside is the
+     * Rover's own IP, a worker sends the packet to the next hop or accepts it.
+     * <p>
+     * Whenever the channel becomes readable, every datagram waiting in it is drained
+     * into a pooled buffer and dispatched to the worker of its flow (its source and
+     * destination address), so packets of a flow stay in order. Each worker handles up
+     * to {@code BATCH_SIZE} datagrams at a time. Everything a worker sends while
+     * handling a batch (forwards, ACKs, new SEQs) is collected in its own SendBatch
+     * and flushed once the batch is done, so forwarded packets are sent straight from
+     * the buffer they were received into.
      *
-     * @throws IOException          if either:
-     *                              the datagram socket fails to initialize
-     *                              (SocketException), or
-     *                              the {@code server.receive(packet)} method throws an
-     *                              IOException.
-     * @throws InterruptedException if the thread is interrupted while executing
-     *                              {@code sendPacket()}
+     * @throws IOException if either:
+     *                     the channel or selector fails to open, or
+     *                     the {@code channel.receive(buffer)} method throws an
+     *                     IOException.
      */
-    private void udpServer() throws IOException, InterruptedException {
-        DatagramSocket server = new DatagramSocket(udpPort);
-        byte[] buffer = new byte[RECEIVE_SIZE];
-        while (true) {
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            server.receive(packet);
-            RipcomPacketManager ripcomPacketManager =
-                    new RipcomPacketManager();
-            RipcomPacket ripcomPacket =
-                    ripcomPacketManager.getRipcomPacket(packet.getData());
+    private void udpServer() throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(udpPort));
+        channel.configureBlocking(false);
+        Selector selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+
+        FlowDispatcher dispatcher = new FlowDispatcher(workerThreads, WORKER_QUEUE_SIZE,
+                RECEIVE_SIZE, BATCH_SIZE, this::newWorkerHandler);
+        dispatcher.start();
+        ByteBuffer buffer = null;
+        try {
+            while (true) {
+                selector.select();
+                selector.selectedKeys().clear();
+                while (true) {
+                    if (buffer == null) {
+                        buffer = dispatcher.takeBuffer();
+                    }
+                    if (channel.receive(buffer) == null) {
+                        break;      //drained; keep the buffer for the next round
+                    }
+                    buffer.flip();
+                    dispatcher.dispatch(buffer);
+                    buffer = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 
-            if (verboseLevel <= 1) {
-                System.out.println("Received a Ripcom packet.");
-                System.out.println("Unpacking...");
-                System.out.println(ripcomPacket);
+    /**
+     * Creates the FlowDispatcher.Handler of a worker thread. This is called on the
+     * worker thread itself, which gets its own SendBatch, RipcomPacketView and
+     * RipcomPacketManager.
+     *
+     * @return the Handler of the calling worker thread.
+     */
+    private FlowDispatcher.Handler newWorkerHandler() {
+        SendBatch batch = new SendBatch(datagramSender, BATCH_SIZE, RECEIVE_SIZE);
+        sendBatch.set(batch);
+        RipcomPacketView view = new RipcomPacketView();
+        RipcomPacketManager ripcomPacketManager = new RipcomPacketManager();
+        return new FlowDispatcher.Handler() {
+            @Override
+            public void handle(ByteBuffer datagram) throws IOException {
+                handleRipcomPacket(view.wrap(datagram), ripcomPacketManager);
             }
-            String destinationIP = ripcomPacket.getDestinationIP();
-            if (destinationIP.equals(getPrivateIP(roverID))) {
-                acceptPacket(ripcomPacket);
-            } else {
-                if (verboseLevel <= 1) {
-                    System.out.println("Forwarding packet");
+
+            @Override
+            public void endOfBatch() throws IOException {
+                int dropped = batch.flush();
+                if (dropped > 0 && verboseLevel <= 1) {
+                    System.out.println("Send buffer full, dropped " + dropped +
+                            " packets of this batch.");
                 }
-                sendPacket(ripcomPacket);
             }
-        }
+        };
     }
 
     /**
-     * Cancels a timer for a packet and removes it from {@code window}, and
-     * {@code packetTimer}.
+     * Handles a single received datagram: accepts it if it is meant for this Rover,
+     * and forwards it otherwise.
      *
-     * @param number the SEQ or FIN number of the packet.
+     * @param view                a view of the received datagram.
+     * @param ripcomPacketManager used to decode packets that are accepted.
+     * @throws IOException see {@code DatagramSender.send()}
      */
-    private void cancelTimerForPacket(int number) {
-        window.remove(number);
+    private void handleRipcomPacket(RipcomPacketView view,
+                                    RipcomPacketManager ripcomPacketManager)
+            throws IOException {
+        if (!view.isValid()) {
+            return;
+        }
+
         if (verboseLevel <= 1) {
-            System.out.println("Number of elements in window: " + window.size());
-            System.out.println("Removing timer for this packet: " + number);
+            System.out.println("Received a Ripcom packet.");
+            System.out.println("Unpacking...");
+            System.out.println(view);
+        }
+        if (isLocalAddress(view.getDestinationAddress())) {
+            acceptPacket(ripcomPacketManager.getRipcomPacket(view));
+        } else {
+            if (verboseLevel <= 1) {
+                System.out.println("Forwarding packet");
+            }
+            forwardPacket(view);
         }
-        Timer timer = packetTimer.get(number);
-        timer.cancel();
-        packetTimer.remove(number);
     }
 
     /**
-     * Used to do various operations depending upon the packetType inside a Ripcom
-     * packet. If the received message is:
-     * 1. an ACK, this function adds the next expected packet to the window and sends
-     * it.
-     * 2. a SEQ, it sends an ACK for the next packet that is expected.
-     * 3. a FIN, it sends a FIN_ACK.
-     * 4. a FIN_ACK, it stops the file sending.
+     * Hands a packet that is meant for this Rover to the session it belongs to, found
+     * by the packet's source address and session ID. SEQs, FINs and REPAIRs go to a
+     * ReceiverSession, which is started when the first packet of a transfer arrives.
+     * ACKs, FIN_ACKs and PROBE_ACKs go to a SenderSession, if there is one. A PROBE is
+     * answered right away with a PROBE_ACK of the same number, without a session.
      *
      * @param ripcomPacket a ripcomPacket that was intended for this Rover. In other
      *                     words, this is a packet that has the destination address as
      *                     the address of this Rover, and should be opened and
      *                     inspected instead of forwarding.
-     * @throws IOException          see {@code addToWindow()}
-     * @throws InterruptedException see {@code sendPacket()}
+     * @throws IOException see {@code sendPacket()}
      */
-    private void acceptPacket(RipcomPacket ripcomPacket) throws IOException, InterruptedException {
-        Type packetType = ripcomPacket.getPacketType();
-        switch (packetType) {
+    private void acceptPacket(RipcomPacket ripcomPacket) throws IOException {
+        long key = Session.key(ripcomPacket.getSourceAddress(), ripcomPacket.getSessionId());
+        switch (ripcomPacket.getPacketType()) {
             case SEQ:
-                if (verboseLevel <= 1) {
-                    System.out.println("Received SEQ " + ripcomPacket.getNumber());
-                }
-                boolean expectedPacket = true;
-                if (ripcomPacket.getNumber() != ackNumber) {
-                    expectedPacket = false;
-                    if (verboseLevel <= 1) {
-                        System.out.println("Received a wrong packet: " + ripcomPacket.getNumber());
-                        System.out.println("Sending ACK again for packet: " + ackNumber);
-                    }
-                }
-                if (expectedPacket) {
-                    ackNumber++;
-                    byte[] message = ripcomPacket.getContents();
-                    if (fileOutputStream == null) {
-                        fileOutputStream =
-                                new FileOutputStream("output");
-                    }
-                    fileOutputStream.write(message);
-                }
-                String destinationIP = ripcomPacket.getSourceIP();
-                RipcomPacket ackPacket = new RipcomPacket(
-                        destinationIP,
-                        getPrivateIP(roverID),
-                        Type.ACK,
-                        ackNumber,
-                        0,
-                        new byte[0]);
-                window.remove(ackNumber - 1);
-                window.put(ackNumber, ackPacket);
-                sendPacket(ackPacket);
-                break;
-            case ACK:
-                int number = ripcomPacket.getNumber();
-                if (verboseLevel <= 1) {
-                    System.out.println("Received ACK " + number);
-                }
-                cancelTimerForPacket(number - 1);
-                addToWindow(ripcomPacket.getSourceIP());
-                RipcomPacket nextPacket = window.get(number);
-                sendPacket(nextPacket);
-                startTimerForPacket(nextPacket.getNumber());
-                break;
             case FIN:
-                if (verboseLevel <= 1) {
-                    System.out.println("Received FIN " + ripcomPacket.getNumber());
-                }
-                byte[] message = ripcomPacket.getContents();
-                fileOutputStream.write(message);
-                fileOutputStream.close();
-                System.out.println("Received message successfully. See file output " +
-                        "for the final output.");
-                ackNumber++;
-                destinationIP = ripcomPacket.getSourceIP();
-                RipcomPacket finAckPacket = new RipcomPacket(
-                        destinationIP,
-                        getPrivateIP(roverID),
-                        Type.FIN_ACK,
-                        ackNumber,
-                        0,
-                        new byte[0]);
-                window.remove(ackNumber - 1);
-                if (verboseLevel <= 1) {
-                    System.out.println("Sending FIN_ACK packet, ackNumber is " + ackNumber);
-                }
-                window.put(ackNumber, finAckPacket);
-                sendPacket(finAckPacket);
+            case REPAIR:
+                receiverSessions.computeIfAbsent(key, k ->
+                        startReceiverSession(ripcomPacket)).deliver(ripcomPacket);
                 break;
+            case PROBE:
+                sendPacket(new RipcomPacket(ripcomPacket.getSourceAddress(),
+                        ripcomPacket.getDestinationAddress(), ripcomPacket.getSessionId(),
+                        Type.PROBE_ACK, ripcomPacket.getNumber(), 0, new byte[0]));
+                break;
+            case ACK:
             case FIN_ACK:
-                if (verboseLevel <= 1) {
-                    System.out.println("Received FIN_ACK " + ripcomPacket.getNumber());
-                }
-                cancelTimerForPacket(seqNumber - 1);
-                System.out.println("Finished sending all data");
-                if (verboseLevel <= 1) {
-                    System.out.println("Completed sending. Window size: " + window.size());
-                    System.out.println("Packet timer size: " + packetTimer.size());
+            case PROBE_ACK:
+                SenderSession senderSession = senderSessions.get(key);
+                if (senderSession != null) {
+                    senderSession.deliver(ripcomPacket);
+                } else if (verboseLevel <= 1) {
+                    System.out.println("No transfer to " + ripcomPacket.getSourceIP() +
+                            " with session " +
+                            Integer.toUnsignedString(ripcomPacket.getSessionId()) +
+                            ", ignoring " + ripcomPacket.getPacketType());
                 }
                 break;
         }
     }
 
     /**
-     * Finds a RoutingTableEntry for a destination IP address. However, unlike {@code
-     * findRoutingTableEntryForIp(destinationIP)}, this method will keep trying to find
-     * the entry for a maximum of {@code UDP_SEND_MAX_RETRIES}. The method will also
-     * sleep for {@code TIMEOUT} ms between two consecutive retries.
+     * Starts a session that receives a file from another Rover. The file is written
+     * to {@code output_<source IP>_<session ID>}.
+     *
+     * @param firstPacket the first packet of the transfer that arrived.
+     * @return the new session.
+     */
+    private ReceiverSession startReceiverSession(RipcomPacket firstPacket) {
+        int sourceAddress = firstPacket.getSourceAddress();
+        int sessionId = firstPacket.getSessionId();
+        String outputName = "output_" + IPAddresses.toString(sourceAddress) + "_" +
+                Integer.toUnsignedString(sessionId);
+        ReceiverSession session = new ReceiverSession(firstPacket.getDestinationAddress(),
+                sourceAddress, sessionId, outputName, fileWriter, this::sendEncoded,
+                closed -> receiverSessions.remove(Session.key(sourceAddress, sessionId),
+                        closed),
+                verboseLevel <= 1);
+        sessionExecutor.execute(session);
+        return session;
+    }
+
+    /**
+     * Finds the RoutingTableEntry with the longest reachable prefix that contains a
+     * destination IP address. This method never waits for a route to appear.
      *
-     * @param destinationIP represents what IP to send a packet to. Will be of the form
-     *                      10.0.{rover_id}.0
-     * @return the found RoutingTableEntry, else null if {@code UDP_SEND_MAX_RETRIES}
-     * is exceeded.
-     * @throws InterruptedException if the thread is interrupted while sleeping (unlikely)
+     * @param destinationAddress represents what IP to send a packet to. This can be any
+     *                           host address.
+     * @return the found RoutingTableEntry, else null.
      */
-    private RoutingTableEntry getEntryForDestinationIP(String destinationIP) throws InterruptedException {
+    private RoutingTableEntry getEntryForDestinationIP(int destinationAddress) {
         if (verboseLevel <= 1) {
-            System.out.println("Finding next hop for " + destinationIP);
-        }
-        RoutingTableEntry routingTableEntry = findRoutingTableEntryForIp(destinationIP);
-        int retryCounter = 0;
-        while (routingTableEntry == null || routingTableEntry.cost == INFINITY) {
-            if (routingTableEntry == null) {
-                System.out.println("Could not find an entry for " + destinationIP + ". " +
-                        "Retrying in " + UPDATE_FREQUENCY + "ms ...");
-            } else {
-                System.out.println("Cannot send packet to " + destinationIP + " as the " +
-                        "cost is " + INFINITY + ". Will retry again in " + UPDATE_FREQUENCY + " ms ...");
-            }
-            Thread.sleep(UPDATE_FREQUENCY);
-            routingTableEntry = findRoutingTableEntryForIp(destinationIP);
-            retryCounter++;
-            if (retryCounter >= UDP_SEND_MAX_RETRIES) {
-                System.out.println("Max retry limit reached, giving up on sending to " + destinationIP);
-                return null;
-            }
+            System.out.println("Finding next hop for " +
+                    IPAddresses.toString(destinationAddress));
+        }
+        return routingTable.snapshot().lookup(destinationAddress, INFINITY);
+    }
+
+    /**
+     * Parks a packet in {@code pendingPackets} until a route to its destination
+     * appears. The packet is copied, since {@code packet} is about to be reused.
+     *
+     * @param destinationAddress the destination of the packet.
+     * @param packet             holds the encoded packet between its position and
+     *                           limit.
+     */
+    private void parkPacket(int destinationAddress, ByteBuffer packet) {
+        if (verboseLevel <= 1) {
+            System.out.println("Could not find a route with a cost below " + INFINITY +
+                    " for " + IPAddresses.toString(destinationAddress) + ". Holding " +
+                    "the packet until one appears ...");
+        }
+        byte[] copy = new byte[packet.remaining()];
+        packet.get(copy);
+        if (pendingPackets.add(destinationAddress, copy)) {
+            System.out.println("Too many packets are waiting for a route to " +
+                    IPAddresses.toString(destinationAddress) + ", dropped the oldest");
         }
-        return routingTableEntry;
     }
 
     /**
-     * Sends a RipcomPacket.
+     * Sends a RipcomPacket from a worker thread. The packet is encoded into a buffer of
+     * the worker's SendBatch and sent when the batch is flushed. If there is no route
+     * to the destination (or the calling thread has no SendBatch), it is encoded into
+     * a new array and handed to {@code sendEncoded()} instead.
      *
      * @param ripcomPacket the packet that needs to be sent
-     * @throws IOException          see {@code datagramSocket.send(datagramPacket)}
-     * @throws InterruptedException see {@code getEntryForDestinationIP()}
+     * @throws IOException see {@code DatagramSender.send()}
      */
-    private void sendPacket(RipcomPacket ripcomPacket) throws IOException, InterruptedException {
-        String destinationIP = ripcomPacket.getDestinationIP();
-        RoutingTableEntry routingTableEntry = getEntryForDestinationIP(destinationIP);
-        if (routingTableEntry != null) {
-            if (verboseLevel <= 1) {
-                System.out.println("Sending to: " + routingTableEntry.nextHop);
-            }
-            byte[] buffer = ripcomPacket.getBytes();
-            DatagramSocket datagramSocket = new DatagramSocket();
-            InetAddress inetAddress = InetAddress.getByName(routingTableEntry.nextHop);
-            DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length,
-                    inetAddress, udpPort);
-            datagramSocket.send(datagramPacket);
-            if (verboseLevel <= 1) {
-                System.out.println("Sent successfully.");
-            }
+    private void sendPacket(RipcomPacket ripcomPacket) throws IOException {
+        int destinationAddress = ripcomPacket.getDestinationAddress();
+        RoutingTableEntry routingTableEntry = getEntryForDestinationIP(destinationAddress);
+        SendBatch batch = sendBatch.get();
+        if (batch != null && routingTableEntry != null) {
+            ByteBuffer buffer = batch.allocate();
+            ripcomPacket.encodeTo(buffer);
+            buffer.flip();
+            transmit(buffer, routingTableEntry, false);
+            return;
         }
+        sendEncoded(ByteBuffer.wrap(ripcomPacket.getBytes()), destinationAddress);
     }
 
     /**
-     * Calculates what the size of contents[] should be, then strips down the extra
-     * read characters and returns a new buffer.
+     * Sends a packet that is already encoded, right away. This is how sessions send
+     * their packets: each session encodes them into a buffer of its own, so sessions
+     * never wait on each other, nor on a lock shared with them. If there is no route
+     * to the destination, the packet is parked until there is one. If the socket's
+     * send buffer is full, this waits until the packet fits, so a session is slowed
+     * down by a full buffer instead of losing the packet to it.
      * <p>
-     * This is only called when {@code BUFFER_SIZE} exceeds the number of bytes read
-     * from the input stream.
+     * Must not be called on a worker thread, since a SendBatch would keep {@code
+     * packet} until it is flushed, and a worker must not wait for the buffer.
      *
-     * @param contents the contents that need to be stripped down.
-     * @return the stripped down array.
+     * @param packet             holds the encoded packet between its position and
+     *                           limit. It may be reused once this method returns.
+     * @param destinationAddress the destination address of the packet.
+     * @throws IOException see {@code DatagramSender.send()}
      */
-    private byte[] stripContents(byte[] contents) {
-        int size = 0;
-        for (int i = 0; i < contents.length; i++) {
-            if (contents[i] == 0) {
-                size = i;
-                break;
-            }
+    private void sendEncoded(ByteBuffer packet, int destinationAddress)
+            throws IOException {
+        RoutingTableEntry routingTableEntry = getEntryForDestinationIP(destinationAddress);
+        if (routingTableEntry != null) {
+            transmit(packet, routingTableEntry, true);
+        } else {
+            parkPacket(destinationAddress, packet);
         }
-
-        byte[] buffer = new byte[size];
-        System.arraycopy(contents, 0, buffer, 0, size);
-        return buffer;
     }
 
     /**
-     * Creates a new RipcomPacket, adds the packet to the window, and increments the
-     * sequence number.
+     * Forwards a packet that is meant for another Rover. The bytes in the receive
+     * buffer are sent on as they are; the packet is never decoded or copied, unless it
+     * has to be parked because there is no route to its destination.
      *
-     * @param destinationIP the IP to which the packet is to be transmitted. Of the
-     *                      form 10.0.{@code roverID}.0
-     * @throws IOException while reading from the input stream.
+     * @param view a view of the received packet.
+     * @throws IOException see {@code DatagramSender.send()}
      */
-    private void addToWindow(String destinationIP) throws IOException {
-        Type type = Type.SEQ;
-        byte[] contents = new byte[BUFFER_CAPACITY];
-        if (dataInputStream.read(contents) == -1) {
-            type = Type.FIN;
-        }
-        if (BUFFER_CAPACITY > lengthCounter) {
-            contents = stripContents(contents);
+    private void forwardPacket(RipcomPacketView view) throws IOException {
+        int destinationAddress = view.getDestinationAddress();
+        RoutingTableEntry routingTableEntry = getEntryForDestinationIP(destinationAddress);
+        ByteBuffer packet = view.getBuffer();
+        packet.limit(view.getEncodedLength()).position(0);
+        if (routingTableEntry != null) {
+            transmit(packet, routingTableEntry, false);
         } else {
-            lengthCounter -= BUFFER_CAPACITY;
+            parkPacket(destinationAddress, packet);
         }
-
-        RipcomPacket ripcomPacket = new RipcomPacket(destinationIP,
-                getPrivateIP(roverID), type, seqNumber, contents.length, contents);
-        window.put(seqNumber, ripcomPacket);
-        seqNumber++;
     }
 
     /**
-     * Starts a new Timer for each sent packet. When the timer runs out, a new packet
-     * is sent again. Note that the newly sent packet will also have a timer attached
-     * to it.
+     * Sends an encoded packet to the next hop of a RoutingTableEntry. If the entry has
+     * several equal-cost next hops, the packet's flow (its source, destination and
+     * session ID) picks one of them, so every packet of a flow takes the same path and
+     * stays in order, while different flows share all paths. On a thread with a
+     * SendBatch, the packet is only added to the batch, so {@code packet} must not be
+     * reused until the batch has been flushed.
+     * <p>
+     * A PROBE that would not fit into {@code linkMtu} is dropped instead, as if it had
+     * been sent with the Don't Fragment bit set. Every other packet is sent, and left
+     * to IP to fragment if it has to.
      *
-     * @param number the SEQ (or FIN) number of the packet, used for looking up the
-     *               packet itself in the window.
+     * @param packet            holds the encoded packet between its position and
+     *                          limit.
+     * @param routingTableEntry the entry for the packet's destination.
+     * @param wait              whether to wait for room in a full send buffer (see
+     *                          {@code DatagramSender.sendWaiting()}) instead of
+     *                          dropping the packet. Ignored on a thread with a
+     *                          SendBatch.
+     * @throws IOException see {@code DatagramSender.send()}
      */
-    private void startTimerForPacket(int number) {
-        Timer timer = new Timer();
-        packetTimer.put(number, timer);
-
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (verboseLevel <= 1) {
-                    System.out.println("Packet number " + number + " timed out!");
-                }
-                RipcomPacket ripcomPacket = window.get(number);
-                try {
-                    if (ripcomPacket != null) {
-                        sendPacket(ripcomPacket);
-                        startTimerForPacket(ripcomPacket.getNumber());
-                    }
-                } catch (IOException | InterruptedException e) {
-                    System.err.println();
-                }
-
+    private void transmit(ByteBuffer packet, RoutingTableEntry routingTableEntry,
+                          boolean wait) throws IOException {
+        if (packet.get(packet.position() + RipcomPacketView.PACKET_TYPE_OFFSET)
+                == Type.PROBE.getCode()
+                && packet.remaining() + RipcomPacket.IP_UDP_OVERHEAD > linkMtu) {
+            if (verboseLevel <= 1) {
+                System.out.println("Dropped a PROBE larger than the link MTU");
+            }
+            return;
+        }
+        int position = packet.position();
+        int nextHop = routingTableEntry.nextHopFor(FlowDispatcher.flowHash(
+                packet.getInt(position + RipcomPacketView.SOURCE_IP_OFFSET) ^ ecmpSeed,
+                packet.getInt(position + RipcomPacketView.DESTINATION_IP_OFFSET),
+                packet.getInt(position + RipcomPacketView.SESSION_ID_OFFSET)));
+        if (verboseLevel <= 1) {
+            System.out.println("Sending to: " + IPAddresses.toString(nextHop));
+        }
+        SendBatch batch = sendBatch.get();
+        if (batch != null) {
+            batch.add(packet, nextHop);
+        } else if (wait) {
+            datagramSender.sendWaiting(packet, nextHop);
+            if (verboseLevel <= 1) {
+                System.out.println("Sent successfully. Waits for a full send " +
+                        "buffer so far: " + datagramSender.getWaits());
             }
-        }, PACKET_TIMEOUT);
+        } else if (datagramSender.send(packet, nextHop)) {
+            if (verboseLevel <= 1) {
+                System.out.println("Sent successfully.");
+            }
+        } else if (verboseLevel <= 1) {
+            System.out.println("Send buffer full, dropped the packet. Packets " +
+                    "dropped so far: " + datagramSender.getDropped());
+        }
     }
 
     /**
-     * If the flags -f and -d are set, this method starts sending packets according to
-     * {@code WINDOW_SIZE} to the destination address.
+     * If the flags -f and -d are set, this method starts a session for every file
+     * given with -f, all of which send their file to the destination address at the
+     * same time.
      *
-     * @throws IOException          see {@code sendPacket}
-     * @throws InterruptedException see {@code sendPacket}
+     * @throws IOException if a file cannot be opened.
      */
-    private void startSendingIfFlag() throws IOException, InterruptedException {
+    private void startSendingIfFlag() throws IOException {
         if (destinationIP != null) {
-            File file = new File(fileName);
-            lengthCounter = file.length();
             System.out.println();
-            dataInputStream = new DataInputStream(new FileInputStream(file));
-            for (int i = 0; i < WINDOW_SIZE; i++) {
-                addToWindow(destinationIP);
-            }
-            for (int i = 0; i < WINDOW_SIZE; i++) {
-                RipcomPacket ripcomPacket = window.get(i);
-                sendPacket(ripcomPacket);
-                startTimerForPacket(ripcomPacket.getNumber());
+            for (String name : fileName.split(",")) {
+                startSenderSession(IPAddresses.toInt(destinationIP), new File(name));
             }
         }
     }
 
+    /**
+     * Starts a session that sends a file to another Rover, under a new random session
+     * ID.
+     *
+     * @param destinationAddress the address to send the file to.
+     * @param file               the file to send.
+     * @throws IOException if the file cannot be opened.
+     */
+    private void startSenderSession(int destinationAddress, File file) throws IOException {
+        int sessionId;
+        long key;
+        do {
+            sessionId = ThreadLocalRandom.current().nextInt();
+            key = Session.key(destinationAddress, sessionId);
+        } while (senderSessions.containsKey(key));
+        CongestionController congestionController =
+                congestionControl.equals("delay") ? new DelayBasedController()
+                        : new NewRenoController();
+        long sessionKey = key;
+        SenderSession session = new SenderSession(getPrivateAddress(roverID),
+                destinationAddress, sessionId, file, windowSize, fecGroupSize, compress,
+                congestionController, this::sendEncoded,
+                closed -> senderSessions.remove(sessionKey, closed),
+                verboseLevel <= 1);
+        System.out.println("Sending " + file + " as session " +
+                Integer.toUnsignedString(sessionId));
+        senderSessions.put(key, session);
+        sessionExecutor.execute(session);
+    }
+
+    /**
+     * Creates the executor that runs transfer sessions, one thread per session. On a
+     * JVM with virtual threads (Java 21 and later) every session gets a virtual thread,
+     * so thousands of transfers cost little more than their buffers. Older JVMs fall
+     * back to a cached pool of platform threads.
+     *
+     * @return the executor for sessions.
+     */
+    private static ExecutorService newSessionExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
     /**
      * Starts a new Rover, and initialises threads.
      *
@@ -943,10 +1208,11 @@ public class Rover extends Thread {
      * @throws SocketException      see constructor
      * @throws UnknownHostException see constructor
      */
-    public static void main(String[] args) throws ArgumentException, IOException, InterruptedException {
+    public static void main(String[] args) throws ArgumentException, IOException {
         Rover rover = new Rover();
         new ArgumentParser().parseArguments(args, rover);
         rover.assignDatagramSocket();
+        rover.addLocalRoutes();
         rover.startThreads();
         rover.startSendingIfFlag();
     }
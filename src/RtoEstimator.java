@@ -0,0 +1,65 @@
+/**
+ * Keeps track of the round trip time of a single transfer and calculates the
+ * retransmission timeout (RTO) from it, as described in RFC 6298 (Jacobson/Karels).
+ * <p>
+ * Samples should only be taken from packets that were transmitted once (Karn's
+ * algorithm), since an ACK for a retransmitted packet could belong to any of its
+ * transmissions. Every timeout doubles the RTO until a new sample is taken.
+ *
+ * @author Soham Dongargaonkar
+ */
+class RtoEstimator {
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int K = 4;
+    private static final long MIN_RTO = 200;        //ms
+    private static final long MAX_RTO = 60000;      //ms
+    private static final long GRANULARITY = 10;     //ms, the G of RFC 6298
+
+    private double smoothedRtt = -1;
+    private double rttVariation;
+    private long rto;
+    private int backoffs = 0;
+
+    /**
+     * @param initialRto the RTO to use before the first sample is taken, in ms.
+     */
+    RtoEstimator(long initialRto) {
+        this.rto = initialRto;
+    }
+
+    /**
+     * Updates the smoothed RTT and its variation with a new sample, and recalculates
+     * the RTO. This also clears any backoff.
+     *
+     * @param rtt the measured round trip time in ms.
+     */
+    synchronized void addSample(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2.0;
+        } else {
+            rttVariation = (1 - BETA) * rttVariation + BETA * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = (1 - ALPHA) * smoothedRtt + ALPHA * rtt;
+        }
+        long calculated = (long) Math.ceil(smoothedRtt + Math.max(GRANULARITY,
+                K * rttVariation));
+        rto = Math.min(MAX_RTO, Math.max(MIN_RTO, calculated));
+        backoffs = 0;
+    }
+
+    /**
+     * Doubles the RTO (exponential backoff), up to {@code MAX_RTO}. Called when a
+     * retransmission timer expires.
+     */
+    synchronized void backoff() {
+        backoffs++;
+    }
+
+    /**
+     * @return the current RTO in ms, including any backoff.
+     */
+    synchronized long getRto() {
+        return Math.min(MAX_RTO, rto << Math.min(backoffs, 16));
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects the packets that a thread wants to send while it works through a batch of
+ * received datagrams, and hands them to a DatagramSender all at once when the batch is
+ * done. This keeps sending out of the receive loop, so a burst of datagrams is drained
+ * and processed back to back before any of the replies or forwards go out.
+ * <p>
+ * Two kinds of packets can be added:
+ * <ul>
+ * <li>Packets that already sit in a buffer, such as a forwarded packet in the receive
+ * ring, are added by reference. The caller must not reuse the buffer until {@code
+ * flush()} has been called.
+ * <li>New packets are encoded into a buffer taken from the batch's own pool with
+ * {@code allocate()}, and then added.
+ * </ul>
+ * The batch flushes itself whenever it, or its pool, runs full.
+ * <p>
+ * This class is not thread safe; every thread needs its own batch.
+ *
+ * @author Soham Dongargaonkar
+ */
+class SendBatch {
+    private final DatagramSender sender;
+    private final ByteBuffer[] packets;
+    private final int[] nextHops;
+    private final ByteBuffer[] pool;
+    private int count = 0;
+    private int allocated = 0;
+
+    /**
+     * @param sender     the sender that the packets are flushed to.
+     * @param capacity   the most packets held before the batch flushes itself.
+     * @param bufferSize the size of each pooled buffer.
+     */
+    SendBatch(DatagramSender sender, int capacity, int bufferSize) {
+        this.sender = sender;
+        packets = new ByteBuffer[capacity];
+        nextHops = new int[capacity];
+        pool = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            pool[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    /**
+     * @return an empty buffer from the pool, to encode a packet into. It stays owned
+     * by the batch, and is reused after the next flush.
+     * @throws IOException see {@code flush()}
+     */
+    ByteBuffer allocate() throws IOException {
+        if (allocated == pool.length) {
+            flush();
+        }
+        ByteBuffer buffer = pool[allocated++];
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Adds a packet to the batch.
+     *
+     * @param packet  holds the encoded packet between its position and limit.
+     * @param nextHop the (real) address of the next hop.
+     * @throws IOException see {@code flush()}
+     */
+    void add(ByteBuffer packet, int nextHop) throws IOException {
+        packets[count] = packet;
+        nextHops[count] = nextHop;
+        count++;
+        if (count == packets.length) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends every packet in the batch, in the order they were added, and empties it.
+     *
+     * @return the number of packets that were dropped because the send buffer was
+     * full.
+     * @throws IOException if the DatagramSender fails.
+     */
+    int flush() throws IOException {
+        int dropped = 0;
+        for (int i = 0; i < count; i++) {
+            if (!sender.send(packets[i], nextHops[i])) {
+                dropped++;
+            }
+            packets[i] = null;
+        }
+        count = 0;
+        allocated = 0;
+        return dropped;
+    }
+}
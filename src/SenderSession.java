@@ -0,0 +1,546 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Sends a single file to another Rover, using a sliding window with selective
+ * acknowledgements (see RipcomProtocol.md).
+ * <p>
+ * Every packet in the window has its own retransmission deadline, taken from the
+ * session's RtoEstimator when the packet was sent. The session thread sleeps until
+ * either an ACK arrives or the earliest deadline passes, so no timer threads are
+ * needed. Deadlines are kept in a PriorityQueue, and are cancelled lazily: the entry
+ * of a packet that was acknowledged or resent stays in the queue and is skipped once
+ * it reaches the head. So neither an ACK nor a wakeup ever scans the window.
+ * <p>
+ * The file is memory-mapped, and every SEQ is a slice of the mapping. A packet is
+ * built whenever it is (re)sent, so the window only keeps the deadlines and file
+ * offsets of the packets in flight and never their contents.
+ * <p>
+ * SEQs are sized to the path MTU, which is searched for with PROBEs (like PLPMTUD,
+ * see RFC 8899). The transfer starts with packets that fit {@code BASE_MTU}, and
+ * every PROBE that is answered lets the packets sent from then on grow to the size of
+ * that PROBE. Rovers drop PROBEs that do not fit their link MTU, so an unanswered
+ * PROBE costs nothing but the PROBE itself.
+ * <p>
+ * With forward error correction turned on, a REPAIR holding the XOR of the last {@code
+ * fecGroupSize} SEQs (see XorParity) is sent after every group of them, so a receiver
+ * can rebuild a single lost SEQ of a group without waiting for its retransmission.
+ * <p>
+ * With compression turned on, every SEQ is compressed on its own the first time it is
+ * sent, so it can be inflated (and retransmitted) independently of all others. The
+ * compressed contents are kept until the SEQ leaves the window. A SEQ that does not
+ * get smaller is sent as it is, and so are the next {@code bypassLength} SEQs after
+ * it, which doubles each time, so incompressible files cost little extra work.
+ *
+ * @author Soham Dongargaonkar
+ */
+class SenderSession extends Session {
+    private final static int DUPLICATE_ACK_THRESHOLD = 3;
+    private final static int PACKET_TIMEOUT = 1000; //initial RTO, before any RTT sample
+    private final static long REGION_SIZE = 1L << 30;   //bytes per mapping
+    final static int BASE_MTU = 1280;                   //assumed to work on every path
+    private final static int[] PROBE_MTUS = {1500, 4352, 9000};
+    final static int MAX_CONTENTS =     //file bytes in a SEQ, before compression
+            RipcomPacket.maxContents(PROBE_MTUS[PROBE_MTUS.length - 1]);
+    private final static int MAX_PROBES = 3;            //tries for each PROBE size
+    private final static int MIN_BYPASS = 8;    //SEQs sent as they are after one that
+    private final static int MAX_BYPASS = 1024; //did not compress
+
+    private final MappedByteBuffer[] regions;
+    private final long fileLength;
+    private final long[] offsets;   //packet n starts at offsets[n % offsets.length]
+    private final byte[][] compressed;  //likewise, null where a SEQ was not compressed
+    private final Deflater deflater;    //null without compression
+    private final byte[] deflateInput;
+    private final byte[] deflateOutput;
+    private int bypass = 0;             //SEQs left to send without trying to compress
+    private int bypassLength = MIN_BYPASS;
+    private final int windowSize;
+    private final int fecGroupSize;
+    private final XorParity parity; //of the current group, null without FEC
+    private final CongestionController congestionController;
+    private final RtoEstimator rtoEstimator = new RtoEstimator(PACKET_TIMEOUT);
+    //The window, indexed by packet number % (windowSize + 1), like offsets.
+    private final boolean[] outstanding;    //sent, and not yet acknowledged
+    private final long[] deadlines;         //Long.MAX_VALUE while lost
+    private final long[] sendTimes;         //-1 once retransmitted (Karn)
+    private final PriorityQueue<Deadline> deadlineQueue = new PriorityQueue<>();
+    private final TreeSet<Integer> lost = new TreeSet<>();   //timed out, not yet resent
+    private int outstandingCount = 0;
+    private int seqNumber = 0;
+    private int sendBase = 0;
+    private boolean finQueued = false;
+    private boolean finished = false;
+    private int duplicateAcks = 0;
+    private int recoveryPoint = 0;
+    private int mtu = BASE_MTU;
+    private int probeIndex = 0;     //the PROBE_MTUS entry being probed
+    private int probeCount = 0;
+    private long probeDeadline = Long.MAX_VALUE;
+
+    /**
+     * A retransmission deadline in {@code deadlineQueue}. It is stale, and skipped, if
+     * the packet is no longer outstanding or has been given a different deadline.
+     */
+    private static class Deadline implements Comparable<Deadline> {
+        private final long time;
+        private final int number;
+
+        private Deadline(long time, int number) {
+            this.time = time;
+            this.number = number;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            return Long.compare(time, other.time);
+        }
+    }
+
+    /**
+     * @param localAddress         the address of this Rover.
+     * @param destinationAddress   the address of the receiving Rover.
+     * @param sessionId            the session ID of the transfer.
+     * @param file                 the file to send.
+     * @param windowSize           the most packets in flight at once.
+     * @param fecGroupSize         the number of SEQs covered by each REPAIR, or 0 to
+     *                             send no REPAIRs.
+     * @param compress             whether to compress the SEQs.
+     * @param congestionController the congestion control for this transfer.
+     * @param packetSender         sends the packets of this session.
+     * @param onClose              called with this session once the file was sent.
+     * @param verbose              whether to print every packet that is handled.
+     * @throws IOException if the file cannot be opened.
+     */
+    SenderSession(int localAddress, int destinationAddress, int sessionId, File file,
+                  int windowSize, int fecGroupSize, boolean compress,
+                  CongestionController congestionController,
+                  PacketSender packetSender, Consumer<Session> onClose, boolean verbose)
+            throws IOException {
+        super(localAddress, destinationAddress, sessionId, packetSender, onClose, verbose);
+        //A mapping stays valid after its channel is closed.
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            this.fileLength = fileChannel.size();
+            this.regions = new MappedByteBuffer[(int) ((fileLength + REGION_SIZE - 1)
+                    / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long position = i * REGION_SIZE;
+                regions[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION_SIZE, fileLength - position));
+            }
+        }
+        this.offsets = new long[windowSize + 1];
+        this.compressed = new byte[windowSize + 1][];
+        this.outstanding = new boolean[windowSize + 1];
+        this.deadlines = new long[windowSize + 1];
+        this.sendTimes = new long[windowSize + 1];
+        this.deflater = compress ? new Deflater() : null;
+        this.deflateInput = compress ? new byte[MAX_CONTENTS] : null;
+        this.deflateOutput = compress ? new byte[MAX_CONTENTS] : null;
+        this.windowSize = windowSize;
+        this.fecGroupSize = fecGroupSize;
+        this.parity = fecGroupSize > 0 ? new XorParity(MAX_CONTENTS) : null;
+        this.congestionController = congestionController;
+    }
+
+    @Override
+    void runSession() throws IOException, InterruptedException {
+        try {
+            sendProbe();
+            fillWindow();
+            while (!finished) {
+                Deadline head = firstDeadline();
+                long nextDeadline = head == null ? probeDeadline
+                        : Math.min(probeDeadline, head.time);
+                RipcomPacket ripcomPacket = receive(nextDeadline - now());
+                if (ripcomPacket != null) {
+                    acceptPacket(ripcomPacket);
+                }
+                retransmitExpired();
+                if (probeDeadline <= now()) {
+                    sendProbe();
+                }
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Handles an ACK, FIN_ACK or PROBE_ACK for this transfer. An ACK slides the window
+     * past everything that was acknowledged (cumulatively or selectively) and sends
+     * the new packets; a FIN_ACK ends the transfer.
+     *
+     * @param ripcomPacket an ACK, FIN_ACK or PROBE_ACK from the receiving Rover.
+     * @throws IOException see {@code fillWindow()}
+     */
+    private void acceptPacket(RipcomPacket ripcomPacket) throws IOException {
+        int number = ripcomPacket.getNumber();
+        if (ripcomPacket.getPacketType() == Type.FIN_ACK) {
+            if (verbose) {
+                System.out.println("Received FIN_ACK " + number);
+            }
+            Arrays.fill(outstanding, false);
+            outstandingCount = 0;
+            deadlineQueue.clear();
+            lost.clear();
+            sendBase = seqNumber;
+            finished = true;
+            System.out.println("Finished sending all data to " +
+                    IPAddresses.toString(remoteAddress) + " (session " +
+                    Integer.toUnsignedString(sessionId) + ")");
+            return;
+        }
+        if (ripcomPacket.getPacketType() == Type.PROBE_ACK) {
+            acceptProbeAck(number);
+            return;
+        }
+        if (ripcomPacket.getPacketType() != Type.ACK) {
+            return;
+        }
+
+        if (verbose) {
+            System.out.println("Received ACK " + number);
+        }
+        long lastSendTime = -1;
+        int outstandingBefore = outstandingCount;
+        //Only a full window says anything about the path (RFC 7661), so the window is
+        //not grown while --window-size or the file holds the sender back.
+        boolean windowLimited = inFlight() >= congestionController.getWindow();
+        boolean advanced = number > sendBase;
+        for (int i = sendBase; i < number && i < seqNumber; i++) {
+            lastSendTime = Math.max(lastSendTime, cancel(i));
+        }
+        sendBase = Math.max(sendBase, Math.min(number, seqNumber));
+        ByteBuffer sackBlocks = ByteBuffer.wrap(ripcomPacket.getContents());
+        while (sackBlocks.remaining() >= 8) {
+            int start = sackBlocks.getInt();
+            int end = sackBlocks.getInt();
+            for (int i = Math.max(start, sendBase); i < end && i < seqNumber; i++) {
+                lastSendTime = Math.max(lastSendTime, cancel(i));
+            }
+        }
+        long rtt = -1;
+        if (lastSendTime != -1) {
+            //Karn's algorithm: retransmitted packets have no send time.
+            rtt = (System.nanoTime() - lastSendTime) / 1_000_000;
+            rtoEstimator.addSample(rtt);
+        }
+        if (outstandingCount < outstandingBefore && windowLimited) {
+            congestionController.onAck(outstandingBefore - outstandingCount, rtt);
+        }
+        if (advanced) {
+            duplicateAcks = 0;
+        } else if (ripcomPacket.getContents().length > 0) {
+            duplicateAcks++;
+            if (duplicateAcks == DUPLICATE_ACK_THRESHOLD
+                    && isOutstanding(sendBase)
+                    && sendBase >= recoveryPoint) {
+                //Fast retransmit; only once per window of data.
+                if (verbose) {
+                    System.out.println("Fast retransmit of packet " + sendBase);
+                }
+                congestionController.onLoss();
+                recoveryPoint = seqNumber;
+                retransmitPacket(sendBase);
+            }
+        }
+        fillWindow();
+    }
+
+    /**
+     * Moves every packet whose deadline has passed to {@code lost}, where it no longer
+     * counts as in flight. A timeout of the oldest packet in the window backs off the
+     * RTO, is reported to the CongestionController, and resends that packet right
+     * away. The other lost packets are resent by {@code fillWindow()} as the
+     * congestion window allows, so a timeout never resends the whole window in one
+     * burst. The retransmitted packets are never used as RTT samples.
+     *
+     * @throws IOException see {@code retransmitPacket()}
+     */
+    private void retransmitExpired() throws IOException {
+        long now = now();
+        boolean timeout = false;
+        Deadline deadline;
+        while ((deadline = firstDeadline()) != null && deadline.time <= now) {
+            deadlineQueue.poll();
+            if (verbose) {
+                System.out.println("Packet number " + deadline.number + " timed out!");
+            }
+            lost.add(deadline.number);
+            deadlines[deadline.number % deadlines.length] = Long.MAX_VALUE; //until resent
+            timeout |= deadline.number == sendBase;
+        }
+        if (timeout) {
+            rtoEstimator.backoff();
+            congestionController.onTimeout();
+            recoveryPoint = seqNumber;
+            retransmitPacket(sendBase);
+        }
+        if (!lost.isEmpty()) {
+            fillWindow();
+        }
+    }
+
+    /**
+     * Drops stale entries from the head of {@code deadlineQueue}.
+     *
+     * @return the earliest deadline of a packet in flight, or null if there is none.
+     */
+    private Deadline firstDeadline() {
+        Deadline head;
+        while ((head = deadlineQueue.peek()) != null && (!isOutstanding(head.number)
+                || deadlines[head.number % deadlines.length] != head.time)) {
+            deadlineQueue.poll();
+        }
+        return head;
+    }
+
+    /**
+     * @param number the number of a packet.
+     * @return true if the packet was sent and has not been acknowledged yet.
+     */
+    private boolean isOutstanding(int number) {
+        return number >= sendBase && number < seqNumber
+                && outstanding[number % outstanding.length];
+    }
+
+    /**
+     * @return the number of packets in the window that are still in flight, i.e. not
+     * in {@code lost}.
+     */
+    private int inFlight() {
+        return outstandingCount - lost.size();
+    }
+
+    /**
+     * Removes a packet from the window. Its entry in {@code deadlineQueue} goes stale.
+     * Packets that were already removed (for instance, by an earlier SACK block) are
+     * ignored.
+     *
+     * @param number the SEQ or FIN number of the packet.
+     * @return the time (from {@code System.nanoTime()}) at which the packet was sent,
+     * or -1 if it was retransmitted or is no longer in the window.
+     */
+    private long cancel(int number) {
+        if (!isOutstanding(number)) {
+            return -1;
+        }
+        int slot = number % outstanding.length;
+        outstanding[slot] = false;
+        outstandingCount--;
+        lost.remove(number);
+        return sendTimes[slot];
+    }
+
+    /**
+     * Starts the retransmission deadline of a packet.
+     *
+     * @param number the number of a packet that was just (re)sent.
+     */
+    private void armDeadline(int number) {
+        long deadline = now() + rtoEstimator.getRto();
+        deadlines[number % deadlines.length] = deadline;
+        deadlineQueue.add(new Deadline(deadline, number));
+    }
+
+    /**
+     * Resends the packets in {@code lost}, oldest first, and then adds and sends new
+     * packets, until the congestion window is full. No new packets are added once
+     * {@code windowSize} packets are outstanding past {@code sendBase}, or once the
+     * FIN has been added.
+     *
+     * @throws IOException see {@code Session.send()}
+     */
+    private void fillWindow() throws IOException {
+        while (!lost.isEmpty() && inFlight() < congestionController.getWindow()) {
+            retransmitPacket(lost.first());
+        }
+        while (!finQueued && seqNumber < sendBase + windowSize
+                && inFlight() < congestionController.getWindow()) {
+            long start = offsets[seqNumber % offsets.length];
+            long end = Math.min(start + maxSeqContents(), fileLength);
+            end = Math.min(end, (start / REGION_SIZE + 1) * REGION_SIZE);
+            offsets[(seqNumber + 1) % offsets.length] = end;
+            compressed[seqNumber % compressed.length] = deflater != null && start < end
+                    ? compress(getContents(seqNumber)) : null;
+            RipcomPacket ripcomPacket = getPacket(seqNumber);
+            finQueued = ripcomPacket.getPacketType() == Type.FIN;
+            if (finQueued && parity != null) {
+                sendRepair();       //for the last group, which may be short
+            }
+            send(ripcomPacket);
+            int slot = seqNumber % outstanding.length;
+            outstanding[slot] = true;
+            outstandingCount++;
+            sendTimes[slot] = System.nanoTime();
+            armDeadline(seqNumber);
+            seqNumber++;
+            if (!finQueued && parity != null) {
+                parity.add(ripcomPacket.getContentsBuffer(), ripcomPacket.getFlags());
+                if (parity.getCount() == fecGroupSize) {
+                    sendRepair();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the most file contents a new SEQ may hold on the current path MTU. With
+     * FEC, this leaves room for the header of the REPAIR, which is as large as the
+     * longest SEQ of its group plus that header.
+     */
+    private int maxSeqContents() {
+        int maxContents = RipcomPacket.maxContents(mtu);
+        return parity != null ? maxContents - XorParity.REPAIR_HEADER_SIZE : maxContents;
+    }
+
+    /**
+     * Sends a REPAIR for the SEQs added to {@code parity} since the last one, if
+     * there are any. Its number is the number of the first SEQ of the group.
+     * REPAIRs are never retransmitted.
+     *
+     * @throws IOException see {@code Session.send()}
+     */
+    private void sendRepair() throws IOException {
+        if (parity.getCount() == 0) {
+            return;
+        }
+        byte[] contents = parity.toRepairContents();
+        send(new RipcomPacket(remoteAddress, localAddress, sessionId, Type.REPAIR,
+                seqNumber - parity.getCount(), contents.length, contents));
+        parity.clear();
+    }
+
+    /**
+     * Sends a packet from the window again and restarts its deadline. The packet will
+     * not be used as an RTT sample (Karn's algorithm).
+     *
+     * @param number the number of the SEQ (or FIN) packet to retransmit.
+     * @throws IOException see {@code Session.send()}
+     */
+    private void retransmitPacket(int number) throws IOException {
+        sendTimes[number % sendTimes.length] = -1;
+        lost.remove(number);
+        send(getPacket(number));
+        armDeadline(number);
+    }
+
+    /**
+     * Handles the answer to a PROBE. Packets sent from now on may be as large as the
+     * PROBE was, and the next larger size is probed.
+     *
+     * @param probedMtu the number of the PROBE_ACK, which is the MTU that was probed.
+     * @throws IOException see {@code sendProbe()}
+     */
+    private void acceptProbeAck(int probedMtu) throws IOException {
+        if (probeIndex == PROBE_MTUS.length || probedMtu != PROBE_MTUS[probeIndex]) {
+            return;     //a late answer to a PROBE that was already given up on
+        }
+        mtu = probedMtu;
+        if (verbose) {
+            System.out.println("Path MTU to " + IPAddresses.toString(remoteAddress) +
+                    " is at least " + mtu);
+        }
+        probeIndex++;
+        probeCount = 0;
+        sendProbe();
+    }
+
+    /**
+     * Sends a PROBE for the MTU that is being searched for, until it has been tried
+     * {@code MAX_PROBES} times. The search ends at the first size that is never
+     * answered, or once the largest size in {@code PROBE_MTUS} has been answered.
+     * <p>
+     * A PROBE is padded with zeros to fill exactly the MTU it probes, and its number
+     * is that MTU.
+     *
+     * @throws IOException see {@code Session.send()}
+     */
+    private void sendProbe() throws IOException {
+        if (probeIndex == PROBE_MTUS.length || probeCount == MAX_PROBES) {
+            probeDeadline = Long.MAX_VALUE;
+            return;
+        }
+        int probedMtu = PROBE_MTUS[probeIndex];
+        byte[] padding = new byte[RipcomPacket.maxContents(probedMtu)];
+        send(new RipcomPacket(remoteAddress, localAddress, sessionId, Type.PROBE,
+                probedMtu, padding.length, padding));
+        probeCount++;
+        probeDeadline = now() + rtoEstimator.getRto();
+    }
+
+    /**
+     * Builds the packet with the given number, which must be in the window. SEQs hold
+     * a slice of the file, which is not copied until the packet is encoded. The packet
+     * that starts at the end of the file is the (empty) FIN.
+     *
+     * @param number the SEQ or FIN number of the packet.
+     * @return the packet.
+     */
+    private RipcomPacket getPacket(int number) {
+        if (offsets[number % offsets.length] == fileLength) {
+            return new RipcomPacket(remoteAddress, localAddress, sessionId, Type.FIN,
+                    number, 0, new byte[0]);
+        }
+        byte[] deflated = compressed[number % compressed.length];
+        if (deflated != null) {
+            return new RipcomPacket(remoteAddress, localAddress, sessionId, Type.SEQ,
+                    RipcomPacket.FLAG_DEFLATE, number, ByteBuffer.wrap(deflated));
+        }
+        return new RipcomPacket(remoteAddress, localAddress, sessionId, Type.SEQ,
+                (byte) 0, number, getContents(number));
+    }
+
+    /**
+     * Compresses the contents of a SEQ, unless compression is being bypassed.
+     *
+     * @param contents the contents of the SEQ.
+     * @return the compressed contents, or null if the SEQ should be sent as it is.
+     */
+    private byte[] compress(ByteBuffer contents) {
+        if (bypass > 0) {
+            bypass--;
+            return null;
+        }
+        int length = contents.remaining();
+        contents.get(deflateInput, 0, length);
+        deflater.reset();
+        deflater.setInput(deflateInput, 0, length);
+        deflater.finish();
+        int size = deflater.deflate(deflateOutput, 0, length);
+        if (!deflater.finished() || size >= length) {
+            bypass = bypassLength;
+            bypassLength = Math.min(bypassLength * 2, MAX_BYPASS);
+            return null;
+        }
+        bypassLength = MIN_BYPASS;
+        return Arrays.copyOf(deflateOutput, size);
+    }
+
+    /**
+     * @param number the number of a SEQ in the window.
+     * @return the contents of the SEQ, as a slice of the mapped file.
+     */
+    private ByteBuffer getContents(int number) {
+        long start = offsets[number % offsets.length];
+        int length = (int) (offsets[(number + 1) % offsets.length] - start);
+        int regionOffset = (int) (start % REGION_SIZE);
+        ByteBuffer contents = regions[(int) (start / REGION_SIZE)].duplicate();
+        contents.limit(regionOffset + length);
+        contents.position(regionOffset);
+        return contents;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A single Ripcom transfer between this Rover and one other Rover, either sending a
+ * file (SenderSession) or receiving one (ReceiverSession).
+ * <p>
+ * A session is identified by the address of the other Rover and a session ID, which
+ * is chosen by the sender and carried in every packet of the transfer. So any number
+ * of transfers, even between the same two Rovers, can run at once.
+ * <p>
+ * Every session runs on its own thread and owns all of its transfer state, so none of
+ * it needs locking. The threads that receive packets only hand them to the session
+ * with {@code deliver()}; the session blocks on its own queue until a packet arrives
+ * or its next timeout is due. Each session also encodes the packets it sends into a
+ * buffer of its own, so sessions never wait on each other to send.
+ *
+ * @author Soham Dongargaonkar
+ */
+abstract class Session implements Runnable {
+    private final static int MAX_PACKET_SIZE = 9216;    //fits a 9000 byte jumbo frame
+
+    private final LinkedBlockingQueue<RipcomPacket> queue = new LinkedBlockingQueue<>();
+    private final PacketSender packetSender;
+    private final Consumer<Session> onClose;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+    final int localAddress;
+    final int remoteAddress;
+    final int sessionId;
+    final boolean verbose;
+
+    /**
+     * Sends the packets of a session. Usually {@code Rover.sendEncoded()}.
+     */
+    interface PacketSender {
+        /**
+         * @param packet             holds an encoded packet between its position and
+         *                           limit. It is reused once this method returns.
+         * @param destinationAddress the destination address of the packet.
+         * @throws IOException if the packet cannot be sent.
+         */
+        void send(ByteBuffer packet, int destinationAddress) throws IOException;
+    }
+
+    /**
+     * @param localAddress  the address of this end of the transfer.
+     * @param remoteAddress the address of the other end of the transfer.
+     * @param sessionId     the session ID of the transfer.
+     * @param packetSender  sends the packets of this session.
+     * @param onClose       called with this session once it has ended.
+     * @param verbose       whether to print every packet that is handled.
+     */
+    Session(int localAddress, int remoteAddress, int sessionId, PacketSender packetSender,
+            Consumer<Session> onClose, boolean verbose) {
+        this.localAddress = localAddress;
+        this.remoteAddress = remoteAddress;
+        this.sessionId = sessionId;
+        this.packetSender = packetSender;
+        this.onClose = onClose;
+        this.verbose = verbose;
+    }
+
+    /**
+     * @param address   the address of the other end of a transfer.
+     * @param sessionId the session ID of the transfer.
+     * @return a key that identifies the transfer among all sessions of this Rover.
+     */
+    static long key(int address, int sessionId) {
+        return ((long) address << 32) | (sessionId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Hands a received packet to this session. Never blocks.
+     *
+     * @param ripcomPacket a packet that belongs to this session.
+     */
+    void deliver(RipcomPacket ripcomPacket) {
+        queue.add(ripcomPacket);
+    }
+
+    @Override
+    public final void run() {
+        try {
+            runSession();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            onClose.accept(this);
+        }
+    }
+
+    /**
+     * Runs the transfer until it is done.
+     *
+     * @throws IOException          if a packet cannot be sent, or the file cannot be
+     *                              read from or written to.
+     * @throws InterruptedException if the session's thread is interrupted.
+     */
+    abstract void runSession() throws IOException, InterruptedException;
+
+    /**
+     * Waits for the next packet of this session.
+     *
+     * @param timeout the longest time to wait, in ms. Zero or less does not wait.
+     * @return the packet, or null if none arrived in time.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    RipcomPacket receive(long timeout) throws InterruptedException {
+        return timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS)
+                : queue.poll();
+    }
+
+    /**
+     * Encodes a packet into this session's own buffer and sends it.
+     *
+     * @param ripcomPacket the packet to send.
+     * @throws IOException see {@code PacketSender.send()}
+     */
+    void send(RipcomPacket ripcomPacket) throws IOException {
+        sendBuffer.clear();
+        ripcomPacket.encodeTo(sendBuffer);
+        sendBuffer.flip();
+        packetSender.send(sendBuffer, ripcomPacket.getDestinationAddress());
+    }
+
+    /**
+     * @return the current time in ms, from a clock that never jumps.
+     */
+    static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * A hashed timer wheel {@see Varghese and Lauck, "Hashed and Hierarchical Timing
+ * Wheels"}. Every timer a Rover needs (packet retransmissions, neighbour timeouts and
+ * the periodic RIP update) is kept on one instance of this class, so that all of them
+ * share a single thread instead of each {@code java.util.Timer} owning its own.
+ * <p>
+ * Time is divided into ticks of {@code TICK_DURATION} ms. A timeout that expires at
+ * tick {@code t} is kept in the bucket {@code t % WHEEL_SIZE}, in a doubly linked
+ * list, so both scheduling and cancelling are O(1). Every tick, the wheel's thread
+ * runs the timeouts of the current bucket that have reached their deadline. Tasks are
+ * run on that thread, hence they should not block for long.
+ *
+ * @author Soham Dongargaonkar
+ */
+class TimerWheel {
+    private static final int TICK_DURATION = 10;    //ms
+    private static final int WHEEL_SIZE = 512;      //must be a power of two
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+    private final long startTime;
+    private long currentTick = 0;
+    private int armedCount = 0;
+
+    /**
+     * Creates a new wheel and starts the thread that drives it.
+     */
+    TimerWheel() {
+        startTime = System.nanoTime();
+        Thread thread = new Thread(this::run, "timer-wheel");
+        thread.start();
+    }
+
+    /**
+     * A handle to a task that was scheduled on the wheel.
+     */
+    static class Timeout {
+        private final Runnable task;
+        private final long periodTicks;
+        private long deadline;
+        private Timeout previous;
+        private Timeout next;
+        private boolean armed;
+
+        private Timeout(Runnable task, long deadline, long periodTicks) {
+            this.task = task;
+            this.deadline = deadline;
+            this.periodTicks = periodTicks;
+        }
+    }
+
+    /**
+     * Schedules {@code task} to be run once, after {@code delay} ms.
+     *
+     * @param task  the task to run.
+     * @param delay the delay in ms.
+     * @return a handle that can be passed to {@code cancel()}.
+     */
+    synchronized Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task, currentTick + toTicks(delay), 0);
+        link(timeout);
+        return timeout;
+    }
+
+    /**
+     * Schedules {@code task} to be run after {@code delay} ms, and then every {@code
+     * period} ms until it is cancelled.
+     *
+     * @param task   the task to run.
+     * @param delay  the delay in ms before the first run.
+     * @param period the time in ms between two consecutive runs.
+     * @return a handle that can be passed to {@code cancel()}.
+     */
+    synchronized Timeout scheduleAtFixedRate(Runnable task, long delay, long period) {
+        Timeout timeout = new Timeout(task, currentTick + toTicks(delay), toTicks(period));
+        link(timeout);
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout. Cancelling a timeout that already ran (or was already
+     * cancelled) does nothing.
+     *
+     * @param timeout the handle returned when the task was scheduled.
+     * @return true if the timeout was armed and has now been cancelled.
+     */
+    synchronized boolean cancel(Timeout timeout) {
+        if (timeout == null || !timeout.armed) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * @return the number of timeouts that are currently waiting to run.
+     */
+    synchronized int armedCount() {
+        return armedCount;
+    }
+
+    /**
+     * Converts a delay in ms to a number of ticks, rounding up so that a task never
+     * runs early. A delay always lasts for at least one tick.
+     */
+    private long toTicks(long delay) {
+        return Math.max(1, (delay + TICK_DURATION - 1) / TICK_DURATION);
+    }
+
+    private void link(Timeout timeout) {
+        int index = (int) (timeout.deadline & MASK);
+        timeout.previous = null;
+        timeout.next = buckets[index];
+        if (buckets[index] != null) {
+            buckets[index].previous = timeout;
+        }
+        buckets[index] = timeout;
+        timeout.armed = true;
+        armedCount++;
+    }
+
+    private void unlink(Timeout timeout) {
+        int index = (int) (timeout.deadline & MASK);
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.armed = false;
+        armedCount--;
+    }
+
+    /**
+     * Unlinks every timeout in the bucket for {@code tick} whose deadline has been
+     * reached, re-arming the periodic ones.
+     *
+     * @return the tasks that should be run for this tick.
+     */
+    private synchronized Runnable[] expire(long tick) {
+        currentTick = tick;
+        int index = (int) (tick & MASK);
+        int count = 0;
+        Runnable[] expired = new Runnable[4];
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadline <= tick) {
+                unlink(timeout);
+                if (count == expired.length) {
+                    Runnable[] larger = new Runnable[count * 2];
+                    System.arraycopy(expired, 0, larger, 0, count);
+                    expired = larger;
+                }
+                expired[count++] = timeout.task;
+                if (timeout.periodTicks > 0) {
+                    timeout.deadline += timeout.periodTicks;
+                    link(timeout);
+                }
+            }
+            timeout = next;
+        }
+        if (count < expired.length) {
+            expired[count] = null;
+        }
+        return expired;
+    }
+
+    /**
+     * The body of the wheel's thread. Processes every tick up to the current time,
+     * then sleeps until the next one.
+     */
+    private void run() {
+        long tick = 0;
+        while (true) {
+            long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+            while (tick < elapsed / TICK_DURATION) {
+                tick++;
+                for (Runnable task : expire(tick)) {
+                    if (task == null) {
+                        break;
+                    }
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            long sleepTime = (tick + 1) * TICK_DURATION - elapsed;
+            try {
+                Thread.sleep(Math.max(1, sleepTime));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -1,11 +1,49 @@
 /**
- * Used to store a Ripcom Packet's packet type.
+ * Used to store a Ripcom Packet's packet type, along with the byte that represents
+ * the type on the wire.
  *
  * @author Soham Dongargaonkar [sd4324] on 29/4/19
  */
 enum Type {
-    SEQ,
-    ACK,
-    FIN,
-    FIN_ACK
-}
\ No newline at end of file
+    SEQ(1),
+    ACK(2),
+    FIN(0),
+    FIN_ACK(3),
+    PROBE(4),
+    PROBE_ACK(5),
+    REPAIR(6);
+
+    private final byte code;
+
+    Type(int code) {
+        this.code = (byte) code;
+    }
+
+    byte getCode() {
+        return code;
+    }
+
+    /**
+     * @param code the packet type byte of a received Ripcom packet.
+     * @return the matching Type. Unknown codes are treated as FIN, as they always
+     * have been.
+     */
+    static Type fromCode(int code) {
+        switch (code) {
+            case 1:
+                return SEQ;
+            case 2:
+                return ACK;
+            case 3:
+                return FIN_ACK;
+            case 4:
+                return PROBE;
+            case 5:
+                return PROBE_ACK;
+            case 6:
+                return REPAIR;
+            default:
+                return FIN;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The XOR of the contents of a group of SEQ packets, which is sent in a REPAIR packet
+ * after the group. A receiver that is missing exactly one packet of the group can
+ * rebuild it by XORing the REPAIR with every packet of the group that it did get.
+ * <p>
+ * Contents of different lengths are XORed as if they were padded with zeros to the
+ * longest of them. The lengths and the flags of the packets are XORed as well, so the
+ * length and flags of the missing packet can be rebuilt too.
+ * <p>
+ * The contents of a REPAIR are the number of packets in the group (4 bytes), the XOR
+ * of their lengths (4 bytes), the XOR of their flags (1 byte), and then the XOR of
+ * their contents.
+ *
+ * @author Soham Dongargaonkar
+ */
+class XorParity {
+    static final int REPAIR_HEADER_SIZE = 9;
+
+    private final byte[] parity;
+    private int length = 0;         //bytes of parity in use
+    private int lengthXor = 0;
+    private byte flagsXor = 0;
+    private int count = 0;
+
+    /**
+     * @param capacity the longest contents that will be added.
+     */
+    XorParity(int capacity) {
+        this.parity = new byte[capacity];
+    }
+
+    /**
+     * Creates the parity of a received REPAIR, to XOR the received packets of its
+     * group into.
+     *
+     * @param repairContents the contents of the REPAIR.
+     * @return the parity, which counts the packets of the group.
+     */
+    static XorParity fromRepair(byte[] repairContents) {
+        ByteBuffer buffer = ByteBuffer.wrap(repairContents);
+        XorParity xorParity = new XorParity(repairContents.length - REPAIR_HEADER_SIZE);
+        xorParity.count = buffer.getInt();
+        xorParity.lengthXor = buffer.getInt();
+        xorParity.flagsXor = buffer.get();
+        xorParity.length = xorParity.parity.length;
+        buffer.get(xorParity.parity);
+        return xorParity;
+    }
+
+    /**
+     * @param contents the contents of a packet, between its position and limit.
+     * @return true if the contents are no longer than the parity, so they can be
+     * added to it.
+     */
+    boolean fits(ByteBuffer contents) {
+        return contents.remaining() <= parity.length;
+    }
+
+    /**
+     * XORs the contents and flags of a packet into the parity. The contents must
+     * {@link #fits(ByteBuffer) fit}.
+     *
+     * @param contents the contents, between its position and limit. The position is
+     *                 not changed.
+     * @param flags    the flags of the packet.
+     */
+    void add(ByteBuffer contents, byte flags) {
+        int position = contents.position();
+        int size = contents.remaining();
+        for (int i = 0; i < size; i++) {
+            parity[i] ^= contents.get(position + i);
+        }
+        length = Math.max(length, size);
+        lengthXor ^= size;
+        flagsXor ^= flags;
+        count++;
+    }
+
+    /**
+     * @return the number of packets added since the last {@code clear()}.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the contents of a REPAIR for the packets that were added.
+     */
+    byte[] toRepairContents() {
+        ByteBuffer buffer = ByteBuffer.allocate(REPAIR_HEADER_SIZE + length);
+        buffer.putInt(count).putInt(lengthXor).put(flagsXor).put(parity, 0, length);
+        return buffer.array();
+    }
+
+    /**
+     * For a parity created with {@code fromRepair()}, once every packet of the group
+     * but one has been added.
+     *
+     * @return the contents of the missing packet, or null if the REPAIR was
+     * malformed.
+     */
+    byte[] getMissing() {
+        if (lengthXor < 0 || lengthXor > parity.length) {
+            return null;
+        }
+        byte[] contents = new byte[lengthXor];
+        System.arraycopy(parity, 0, contents, 0, contents.length);
+        return contents;
+    }
+
+    /**
+     * For a parity created with {@code fromRepair()}, once every packet of the group
+     * but one has been added.
+     *
+     * @return the flags of the missing packet.
+     */
+    byte getMissingFlags() {
+        return flagsXor;
+    }
+
+    /**
+     * Empties the parity, to start a new group.
+     */
+    void clear() {
+        Arrays.fill(parity, 0, length, (byte) 0);
+        length = 0;
+        lengthXor = 0;
+        flagsXor = 0;
+        count = 0;
+    }
+}